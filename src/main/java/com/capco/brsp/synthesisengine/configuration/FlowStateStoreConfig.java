@@ -0,0 +1,66 @@
+package com.capco.brsp.synthesisengine.configuration;
+
+import com.capco.brsp.synthesisengine.flow.FileFlowStateStore;
+import com.capco.brsp.synthesisengine.flow.FlowStateStore;
+import com.capco.brsp.synthesisengine.flow.JdbcFlowStateStore;
+import com.capco.brsp.synthesisengine.flow.LocalFlowStateStore;
+import com.capco.brsp.synthesisengine.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+@Slf4j
+@Configuration
+public class FlowStateStoreConfig {
+    // Only the file and jdbc stores are shared, the local one is for a single instance
+    @Value("${configs.flow.stateStore.type:local}")
+    private String type;
+
+    @Value("${configs.flow.stateStore.nodeId:}")
+    private String nodeId;
+
+    // Leases are renewed while their task runs, so this only bounds how long the tasks of a dead node stay taken
+    @Value("${configs.flow.leaseTtlMinutes:2}")
+    private long leaseTtlMinutes;
+
+    @Value("${configs.flow.stateStore.jdbc.url:}")
+    private String jdbcUrl;
+
+    @Value("${configs.flow.stateStore.jdbc.username:}")
+    private String jdbcUsername;
+
+    @Value("${configs.flow.stateStore.jdbc.password:}")
+    private String jdbcPassword;
+
+    @Bean
+    public FlowStateStore flowStateStore() {
+        var finalNodeId = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId;
+        var leaseTtl = Duration.ofMinutes(leaseTtlMinutes);
+        log.info("Using the '{}' flow state store as the node '{}'", type, finalNodeId);
+
+        return switch (type.toLowerCase()) {
+            case "local" -> new LocalFlowStateStore(finalNodeId, leaseTtl);
+            case "file" -> new FileFlowStateStore(FileUtils.USER_TEMP_PROJECTS_FOLDER_PATH, finalNodeId, leaseTtl);
+            case "jdbc" -> new JdbcFlowStateStore(new DriverManagerDataSource(jdbcUrl, jdbcUsername, jdbcPassword), finalNodeId, leaseTtl);
+            default -> throw new IllegalStateException("Unknown flow state store type '" + type + "', expected one of: local, file, jdbc");
+        };
+    }
+
+    // Stable for a restarted container, which then takes back its own leases right away
+    private static String defaultNodeId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            hostName = "localhost";
+        }
+
+        return hostName + "-" + ProcessHandle.current().pid();
+    }
+}
@@ -1,19 +1,33 @@
 package com.capco.brsp.synthesisengine.controller;
 
 import com.capco.brsp.synthesisengine.dto.ResponseAboutDto;
+import com.capco.brsp.synthesisengine.service.BedrockClientPoolService;
+import com.capco.brsp.synthesisengine.service.LLMRateLimiterService;
+import com.capco.brsp.synthesisengine.service.LLMResponseCacheService;
+import com.capco.brsp.synthesisengine.service.LLMSpringService;
+import com.capco.brsp.synthesisengine.service.ScriptService2;
+import com.capco.brsp.synthesisengine.service.TransformCacheService;
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
 
 @Slf4j
 @RestController
 @RequestMapping("/admin")
 @RequiredArgsConstructor
 public class AdminController {
+    private final ScriptService2 scriptService2;
+    private final TransformCacheService transformCacheService;
+    private final LLMResponseCacheService llmResponseCacheService;
+    private final BedrockClientPoolService bedrockClientPoolService;
+    private final LLMRateLimiterService llmRateLimiterService;
+    private final LLMSpringService llmSpringService;
+
     @Value("${about.appName}")
     private String appName;
 
@@ -30,4 +44,66 @@ public class AdminController {
                         .build()
         );
     }
+
+    @GetMapping("/caches")
+    public ResponseEntity<Map<String, Object>> caches() {
+        Map<String, Object> caches = new ConcurrentLinkedHashMap<>();
+        caches.put("freemarkerTemplates", scriptService2.getFreemarkerTemplateCacheStats());
+        caches.put("transformPlans", scriptService2.getTransformPlanCacheStats());
+        caches.put("spelExpressions", scriptService2.getSpelExpressionCacheStats());
+        caches.put("transforms", transformCacheService.getStats());
+        caches.put("llmResponses", llmResponseCacheService.getStats());
+
+        return ResponseEntity.ok(caches);
+    }
+
+    @GetMapping("/caches/transforms")
+    public ResponseEntity<Map<String, Object>> transformCache() {
+        return ResponseEntity.ok(transformCacheService.getStats());
+    }
+
+    @DeleteMapping("/caches/transforms")
+    public ResponseEntity<Map<String, Object>> purgeTransformCache(@RequestParam(value = "expiredOnly", defaultValue = "false") boolean expiredOnly) {
+        var removed = expiredOnly ? transformCacheService.purgeExpired() : transformCacheService.purge();
+        log.info("Purged {} transform cache entries (expiredOnly={})", removed, expiredOnly);
+
+        return ResponseEntity.ok(Map.of("removed", removed));
+    }
+
+    @DeleteMapping("/caches/transforms/{hash}")
+    public ResponseEntity<Map<String, Object>> removeTransformCacheEntry(@PathVariable("hash") String hash) {
+        if (!transformCacheService.remove(hash)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok(Map.of("removed", 1));
+    }
+
+    @GetMapping("/caches/llm")
+    public ResponseEntity<Map<String, Object>> llmResponseCache() {
+        return ResponseEntity.ok(llmResponseCacheService.getStats());
+    }
+
+    @DeleteMapping("/caches/llm")
+    public ResponseEntity<Map<String, Object>> purgeLlmResponseCache() {
+        var removed = llmResponseCacheService.purge();
+        log.info("Purged {} LLM response cache entries", removed);
+
+        return ResponseEntity.ok(Map.of("removed", removed));
+    }
+
+    @GetMapping("/llm/bedrock")
+    public ResponseEntity<Map<String, Object>> bedrockClients() {
+        return ResponseEntity.ok(bedrockClientPoolService.getStats());
+    }
+
+    @GetMapping("/llm/limits")
+    public ResponseEntity<Map<String, Object>> llmLimits() {
+        return ResponseEntity.ok(llmRateLimiterService.getStats());
+    }
+
+    @GetMapping("/llm/streaming")
+    public ResponseEntity<Map<String, Object>> llmStreaming() {
+        return ResponseEntity.ok(llmSpringService.getStreamingStats());
+    }
 }
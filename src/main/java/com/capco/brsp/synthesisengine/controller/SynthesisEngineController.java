@@ -5,6 +5,7 @@ import com.capco.brsp.synthesisengine.configuration.UtilsConfig;
 import com.capco.brsp.synthesisengine.dto.*;
 import com.capco.brsp.synthesisengine.flow.EnumTaskStatus;
 import com.capco.brsp.synthesisengine.flow.Flow;
+import com.capco.brsp.synthesisengine.flow.FlowStateStore;
 import com.capco.brsp.synthesisengine.flow.Task;
 import com.capco.brsp.synthesisengine.service.*;
 import com.capco.brsp.synthesisengine.tools.ToolsService;
@@ -54,6 +55,7 @@ public class SynthesisEngineController {
     private final LLMSpringService llmSpringService;
     private final LLMEmbeddingSpringService llmEmbeddingSpringService;
     private final UtilsConfig utilsConfig;
+    private final AskService askService;
 
     public static LocalDateTime convertDateToLocalDateTime(Date date) {
         if (date == null) {
@@ -206,7 +208,6 @@ public class SynthesisEngineController {
                         @Override
                         public void run() {
                             try {
-                                contextService.setFlowKey(flowKey);
                                 var path = Paths.get(it.getPath());
                                 var result = String.valueOf(scriptService.autoEval(itemValue, it.getHistory()));
                                 var projectContext = contextService.getProjectContext();
@@ -257,9 +258,12 @@ public class SynthesisEngineController {
         if (askAnswers != null && !askAnswers.isEmpty() && progressDto.getStatusCode() != HttpStatusCode.valueOf(404)) {
             var projectContext = contextService.getProjectContext();
             askAnswers.forEach((k, v) -> {
-                var askQueue = ((List<Map<String, Object>>) projectContext.get("askQueue"));
-                askQueue.removeIf(it -> k.equals(it.get("key")));
+                if (projectContext.get(AskService.ASK_QUEUE_KEY) instanceof List<?> askQueue) {
+                    askQueue.removeIf(it -> it instanceof Map<?, ?> ask && k.equals(ask.get("key")));
+                }
                 Utils.anyCollectionSet(projectContext, k, v);
+                // Resumes the task waiting on this answer, if any
+                askService.answer(flowKey, k, v);
             });
         }
 
@@ -578,6 +582,8 @@ public class SynthesisEngineController {
 
         List<Task> allTasks = new ConcurrentLinkedList<>(flow.getPolledTasks());
         allTasks.addAll(flow.getTasks());
+        // Tasks leased by other nodes running the same job are reported with their status there
+        var taskStates = flow.getTaskStates();
         allTasks.forEach(it -> {
             StepInfoDto stepInfo = new StepInfoDto();
             LocalDateTime startTime = convertDateToLocalDateTime(it.getStartedAt());
@@ -591,7 +597,10 @@ public class SynthesisEngineController {
 
             stepInfo = new StepInfoDto();
             stepInfo.setName(it.getName());
-            stepInfo.setStatus(it.getStatus().name());
+            stepInfo.setStatus(flow.getTaskStatus(it, taskStates).name());
+            if (it.isTracked() && taskStates.get(it.getLeaseKey()) instanceof FlowStateStore.TaskState state) {
+                stepInfo.setNodeId(state.nodeId());
+            }
             stepInfo.setNumberOfAttempts(0);
             stepInfo.setStartTime(startTime);
             stepInfo.setEndTime(endTime);
@@ -602,6 +611,7 @@ public class SynthesisEngineController {
 
 
         int totalSteps = flow.getTotalTasks();
+        int completedSteps = (int) steps.stream().filter(it -> EnumTaskStatus.COMPLETE.name().equals(it.getStatus())).count();
         var currentStep = flow.getCurrentTask();
 
         LocalDateTime startTime = convertDateToLocalDateTime(flow.getStartedAt());
@@ -613,12 +623,12 @@ public class SynthesisEngineController {
                 .status(flow.getStatus().name())
                 .steps(steps)
                 .numberOfAttempts(1)
-                .completedSteps(flow.getTotalTasksDone())
+                .completedSteps(completedSteps)
                 .totalSteps(steps.size())
                 .startTime(startTime)
                 .endTime(endTime)
                 .totalTime(totalTime)
-                .completionPercentage(totalSteps > 0 ? flow.getTotalTasksDone() * 100 / totalSteps : 0)
+                .completionPercentage(totalSteps > 0 ? completedSteps * 100 / totalSteps : 0)
                 .currentStepName(currentStep == null ? null : currentStep.getName())
                 .currentStepStatus(currentStep == null ? flow.getStatus().name() : currentStep.getStatus().name())
                 .rotateMessages(Utils.safeGet(() -> flow.getCurrentTask().getRotateMessages(), new ConcurrentLinkedList<>()))
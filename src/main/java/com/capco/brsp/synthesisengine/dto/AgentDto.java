@@ -83,6 +83,12 @@ public class AgentDto {
     @JsonProperty("tools")
     private List<String> tools;
 
+    @JsonProperty("cache")
+    private String cache;
+
+    @JsonProperty("stream")
+    private Boolean stream;
+
     @JsonProperty("metadata")
     private Map<String, Object> metadata;
 }
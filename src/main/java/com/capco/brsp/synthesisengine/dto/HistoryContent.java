@@ -0,0 +1,83 @@
+package com.capco.brsp.synthesisengine.dto;
+
+import com.capco.brsp.synthesisengine.utils.JsonUtils;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.List;
+
+/**
+ * Transform history snapshot that is only rendered as text when the history is actually requested
+ * (progress API, checkpoints). Depending on the recipe {@code config.historyMode} the content is either a
+ * live reference ({@code lazy}), an eagerly serialized copy ({@code full}) or a truncated copy ({@code capped}).
+ */
+public class HistoryContent {
+    public static final String MODE_FULL = "full";
+    public static final String MODE_CAPPED = "capped";
+    public static final String MODE_LAZY = "lazy";
+    public static final int DEFAULT_MAX_CHARS = 65536;
+
+    private final List<String> sentences;
+    private final Object content;
+    private final int maxChars;
+    private volatile String rendered;
+
+    private HistoryContent(List<String> sentences, Object content, int maxChars) {
+        this.sentences = sentences;
+        this.content = content;
+        this.maxChars = maxChars;
+    }
+
+    public static HistoryContent of(String mode, List<String> sentences, Object content, int maxChars) {
+        // Strings are immutable, so keeping the reference is always an exact snapshot
+        if (content instanceof String || MODE_LAZY.equalsIgnoreCase(mode)) {
+            return new HistoryContent(sentences, content, MODE_CAPPED.equalsIgnoreCase(mode) ? maxChars : -1);
+        }
+
+        var serialized = serialize(content);
+        if (MODE_CAPPED.equalsIgnoreCase(mode)) {
+            serialized = truncate(serialized, maxChars);
+        }
+
+        return new HistoryContent(sentences, serialized, -1);
+    }
+
+    @JsonValue
+    public String render() {
+        var result = rendered;
+        if (result == null) {
+            result = truncate(String.join("\n", sentences) + "\n" + serialize(content), maxChars);
+            rendered = result;
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+
+    private static String serialize(Object content) {
+        if (content instanceof String contentStr) {
+            return contentStr;
+        }
+
+        String serializedData = "<UNSERIALIZABLE DATA>";
+        try {
+            serializedData = JsonUtils.writeAsJsonStringCircular(content, true, true);
+        } catch (Exception ex) {
+            var jsonException = JsonUtils.throwableAsJson(ex);
+            serializedData += "\n" + jsonException;
+        }
+
+        return serializedData;
+    }
+
+    private static String truncate(String value, int maxChars) {
+        if (maxChars < 0 || value.length() <= maxChars) {
+            return value;
+        }
+
+        return value.substring(0, maxChars) + "\n... [truncated " + (value.length() - maxChars) + " chars]";
+    }
+}
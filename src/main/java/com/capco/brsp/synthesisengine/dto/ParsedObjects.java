@@ -1,19 +1,34 @@
 package com.capco.brsp.synthesisengine.dto;
 
 import atr.TreeNode;
+import atr.TreeRewriter;
+import com.capco.brsp.synthesisengine.utils.JsonUtils;
+import com.capco.brsp.synthesisengine.utils.ParseTreeJsonConverter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.proleap.cobol.asg.metamodel.ASGElement;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import org.antlr.v4.runtime.*;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Result of a parse. The tree node and the JSON views of the parse tree are only built the first time they are read,
+ * most recipes use one of them or none. Java serialization only keeps the JSON object, the JSON string is derived
+ * from it again when read.
+ */
 @Data
 @Builder
+@ToString(doNotUseGetters = true)
+@EqualsAndHashCode(doNotUseGetters = true)
 public class ParsedObjects implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -37,6 +52,45 @@ public class ParsedObjects implements Serializable {
     @JsonIgnore
     private ObjectNode jsonTree;
 
-    private String jsonString;
+    private transient String jsonString;
     private Object jsonObject;
+
+    public synchronized TreeNode getTreeNode() {
+        if (treeNode == null && parserRuleContext != null) {
+            treeNode = new TreeRewriter(parserRuleContext).rewrite();
+        }
+
+        return treeNode;
+    }
+
+    public synchronized ObjectNode getJsonTree() {
+        if (jsonTree == null && parserRuleContext != null) {
+            jsonTree = ParseTreeJsonConverter.toJson(parserRuleContext, parser, tokens);
+        }
+
+        return jsonTree;
+    }
+
+    @JsonProperty("jsonString")
+    public synchronized String getJsonString() {
+        if (jsonString == null && (parserRuleContext != null || jsonObject != null)) {
+            jsonString = JsonUtils.writeAsJsonString(getJsonObject(), true);
+        }
+
+        return jsonString;
+    }
+
+    public synchronized Object getJsonObject() {
+        if (jsonObject == null && parserRuleContext != null) {
+            jsonObject = ParseTreeJsonConverter.toObject(parserRuleContext, parser, tokens);
+        }
+
+        return jsonObject;
+    }
+
+    // The parse tree is transient, so the serialized view is built before it is lost
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getJsonObject();
+        out.defaultWriteObject();
+    }
 }
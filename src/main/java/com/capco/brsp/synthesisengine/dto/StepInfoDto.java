@@ -8,6 +8,7 @@ import java.time.LocalDateTime;
 public class StepInfoDto {
     private String name;
     private String status;
+    private String nodeId;
     private int numberOfAttempts;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
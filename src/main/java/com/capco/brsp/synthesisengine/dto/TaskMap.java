@@ -2,10 +2,27 @@ package com.capco.brsp.synthesisengine.dto;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 @Getter
 @RequiredArgsConstructor
 public class TaskMap {
     private final String name;
     private final Runnable runnable;
+    private final boolean exclusive;
+    // Depends on every task that is not afterAll itself
+    private final boolean afterAll;
+    // Set for tasks writing a single file, so they can be skipped while up-to-date
+    @Setter
+    private String inputHash;
+    @Setter
+    private String outputPath;
+
+    public TaskMap(String name, Runnable runnable) {
+        this(name, runnable, false);
+    }
+
+    public TaskMap(String name, Runnable runnable, boolean exclusive) {
+        this(name, runnable, exclusive, false);
+    }
 }
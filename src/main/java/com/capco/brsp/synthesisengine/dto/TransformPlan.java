@@ -0,0 +1,53 @@
+package com.capco.brsp.synthesisengine.dto;
+
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedList;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Immutable result of splitting an {@code @@@} script into its static content and pre-parsed transform steps.
+ * Plans are shared between executions, so every run gets fresh {@link TransformDto} instances from {@link #newTransforms()}.
+ */
+@Getter
+@Builder
+public class TransformPlan {
+    private final String content;
+    private final List<Step> steps;
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public List<TransformDto> newTransforms() {
+        List<TransformDto> transforms = new ConcurrentLinkedList<>();
+        for (var step : steps) {
+            transforms.add(step.newTransform());
+        }
+
+        return transforms;
+    }
+
+    @Getter
+    @Builder
+    public static class Step {
+        private final String sentence;
+        private final String name;
+        private final String command;
+        private final String originalTransformParams;
+        private final List<Object> parameters;
+        private final boolean update;
+
+        public TransformDto newTransform() {
+            return TransformDto.builder()
+                    .sentence(sentence)
+                    .name(name)
+                    .command(command)
+                    .parameters(parameters == null ? null : new ConcurrentLinkedList<>(parameters))
+                    .update(update)
+                    .originalTransformParams(originalTransformParams)
+                    .build();
+        }
+    }
+}
@@ -380,7 +380,6 @@ class ProjectModelExecutor implements IExecutor {
                 final int projectModelSize = projectModel.size();
 
                 Runnable task = () -> {
-                    contextService.setFlowKey(flowKey);
                     var context = contextService.getProjectContext();
 
                     // Files paths
@@ -472,7 +471,6 @@ class ProjectModelExecutor implements IExecutor {
                 final int currentFileIndex = fileIndex;
 
                 Runnable task = () -> {
-                    contextService.setFlowKey(flowKey);
                     var context = contextService.getProjectContext();
 
                     // Files paths
@@ -545,7 +543,7 @@ class ProjectModelExecutor implements IExecutor {
                      IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
-            listOfTaskMap.addAll(afterAllListOfTasks);
+            afterAllListOfTasks.forEach(it -> listOfTaskMap.add(new TaskMap(it.getName(), it.getRunnable(), it.isExclusive(), true)));
         }
 
         return listOfTaskMap;
@@ -3,6 +3,7 @@ package com.capco.brsp.synthesisengine.executors;
 import com.capco.brsp.synthesisengine.dto.Script;
 import com.capco.brsp.synthesisengine.dto.TaskMap;
 import com.capco.brsp.synthesisengine.dto.TransformDto;
+import com.capco.brsp.synthesisengine.flow.Flow;
 import com.capco.brsp.synthesisengine.service.*;
 import com.capco.brsp.synthesisengine.utils.*;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -389,6 +390,12 @@ class ProjectModelExecutor2 implements IExecutor {
         // Creating tasks/files
         List<TaskMap> listOfTaskMap = new ConcurrentLinkedList<>();
 
+        // In parallel mode each file task runs over its own overlay of the projectContext
+        final boolean parallel = Flow.resolveParallelism(recipe) > 1;
+        // Each file task writes its own entry of the files metadata, so it's always published
+        final List<String> publishKeys = new ConcurrentLinkedList<>(Flow.resolvePublishKeys(recipe));
+        publishKeys.add("files_metadata");
+
         for (int index = 0; index < projects.size(); index++) {
             Map<String, Object> project = projects.get(index);
             Map<String, Object> projectModel = (Map<String, Object>) project.get("projectModel");
@@ -396,6 +403,12 @@ class ProjectModelExecutor2 implements IExecutor {
             // Ensure to always have a projectNormalizedName
             project.putIfAbsent("projectNormalizedName", project.get("name"));
 
+            // The tasks write the project data into the context themselves, so their reads of it are not recorded
+            // dependencies, it's part of their input hash instead
+            Map<String, Object> projectData = new LinkedHashMap<>(project);
+            projectData.remove("projectModel");
+            var projectDataString = JsonUtils.writeAsJsonStringCircular(projectData, false, false);
+
             int fileIndex = 0;
             for (Map.Entry<String, Object> fileEntry : projectModel.entrySet()) {
                 String filePath = fileEntry.getKey();
@@ -412,7 +425,6 @@ class ProjectModelExecutor2 implements IExecutor {
                 final int projectModelSize = projectModel.size();
 
                 Runnable task = () -> {
-                    contextService.setFlowKey(flowKey);
                     var context = contextService.getProjectContext();
 
                     // Files paths
@@ -445,7 +457,9 @@ class ProjectModelExecutor2 implements IExecutor {
                     Map<String, Object> fileMetadata = new ConcurrentLinkedHashMap<>();
                     fileMetadata.put("meta", fileMeta);
                     fileMetadata.put("history", history);
-                    filesMetadata.put(relativeFilePath, fileMetadata);
+                    // Written through the task context, the shared metadata only gets the entry once the task publishes
+                    var taskFilesMetadata = contextService.getNestedForUpdate("files_metadata");
+                    taskFilesMetadata.put(relativeFilePath, fileMetadata);
 
                     processAction(executorEvents, "beforeEachFile", null, history);
 
@@ -461,7 +475,7 @@ class ProjectModelExecutor2 implements IExecutor {
 
                     if (fileName.startsWith("_") || result.startsWith("// Skipped/Empty File")) {
                         log.info("Skipping the file: " + fullFilePath);
-                        filesMetadata.remove(relativeFilePath);
+                        taskFilesMetadata.remove(relativeFilePath);
                     } else {
                         FileUtils.writeFile(Path.of(fullFilePath), result, false);
                     }
@@ -478,7 +492,18 @@ class ProjectModelExecutor2 implements IExecutor {
                     context.remove("meta");
                 };
 
-                TaskMap taskMap = new TaskMap("Project " + currentProjectIndex + " - " + filePath, task);
+                // Project events rely on ordering, so the first/last files of a project don't overlap with others
+                boolean exclusive = (currentFileIndex == 0 && executorEvents.containsKey("beforeEachProject"))
+                        || (currentFileIndex == projectModelSize - 1 && executorEvents.containsKey("afterEachProject"));
+                Runnable finalTask = parallel && !exclusive ? contextService.isolated(flowKey, publishKeys, task) : task;
+
+                TaskMap taskMap = new TaskMap("Project " + currentProjectIndex + " - " + filePath, finalTask, exclusive);
+                // Exclusive tasks also run the project events, so they are never skipped
+                if (!exclusive && fileValue instanceof String fileValueString) {
+                    var outputRelativePath = String.valueOf(FileUtils.pathJoin(project.get("projectNormalizedName"), filePath));
+                    taskMap.setInputHash(Utils.hashString(filePath, fileValueString, String.valueOf(executorEvents), projectDataString));
+                    taskMap.setOutputPath(String.valueOf(FileUtils.absolutePathJoin(projectContext.get("rootFolder"), outputRelativePath)));
+                }
                 listOfTaskMap.add(taskMap);
 
                 fileIndex++;
@@ -504,7 +529,6 @@ class ProjectModelExecutor2 implements IExecutor {
                 final int currentFileIndex = fileIndex;
 
                 Runnable task = () -> {
-                    contextService.setFlowKey(flowKey);
                     var context = contextService.getProjectContext();
 
                     // Files paths
@@ -533,7 +557,9 @@ class ProjectModelExecutor2 implements IExecutor {
                     Map<String, Object> fileMetadata = new ConcurrentLinkedHashMap<>();
                     fileMetadata.put("meta", fileMeta);
                     fileMetadata.put("history", history);
-                    filesMetadata.put(relativeFilePath, fileMetadata);
+                    // Written through the task context, the shared metadata only gets the entry once the task publishes
+                    var taskFilesMetadata = contextService.getNestedForUpdate("files_metadata");
+                    taskFilesMetadata.put(relativeFilePath, fileMetadata);
 
                     processAction(executorEvents, "beforeEachFile", null, history);
 
@@ -548,7 +574,7 @@ class ProjectModelExecutor2 implements IExecutor {
 
                     if (fileName.startsWith("_") || result.startsWith("// Skipped/Empty File")) {
                         log.info("Skipping the file: " + fullFilePath);
-                        filesMetadata.remove(relativeFilePath);
+                        taskFilesMetadata.remove(relativeFilePath);
                     } else {
                         FileUtils.writeFile(Path.of(fullFilePath), result, false);
                     }
@@ -561,7 +587,11 @@ class ProjectModelExecutor2 implements IExecutor {
                     context.remove("meta");
                 };
 
-                var taskMap = new TaskMap("Project Super Model - " + filePath, task);
+                // The super model aggregates all projects, so its first file waits for every project file
+                boolean exclusive = currentFileIndex == 0;
+                Runnable finalTask = parallel && !exclusive ? contextService.isolated(flowKey, publishKeys, task) : task;
+
+                var taskMap = new TaskMap("Project Super Model - " + filePath, finalTask, exclusive);
                 listOfTaskMap.add(taskMap);
 
                 fileIndex++;
@@ -577,7 +607,7 @@ class ProjectModelExecutor2 implements IExecutor {
                      IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
-            listOfTaskMap.addAll(afterAllListOfTasks);
+            afterAllListOfTasks.forEach(it -> listOfTaskMap.add(new TaskMap(it.getName(), it.getRunnable(), true, true)));
         }
 
         return listOfTaskMap;
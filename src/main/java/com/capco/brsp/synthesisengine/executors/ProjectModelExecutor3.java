@@ -4,6 +4,7 @@ import com.capco.brsp.synthesisengine.dto.Script;
 import com.capco.brsp.synthesisengine.dto.TransformDto;
 import com.capco.brsp.synthesisengine.flow.EnumTaskStatus;
 import com.capco.brsp.synthesisengine.flow.Flow;
+import com.capco.brsp.synthesisengine.flow.FlowStateStore;
 import com.capco.brsp.synthesisengine.flow.Task;
 import com.capco.brsp.synthesisengine.service.*;
 import com.capco.brsp.synthesisengine.utils.*;
@@ -19,6 +20,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Service("ProjectModelExecutor3")
@@ -114,23 +117,30 @@ class ProjectModelExecutor3 implements IExecutor {
                 .status(EnumTaskStatus.NEW)
                 .startMessage("Starting the execution of genericFlow")
                 .endMessage("Finished SUCCESSFULLY the execution of genericFlow")
-                .tasks(new ConcurrentLinkedList<>())
+                .tasks(new ConcurrentLinkedDeque<>())
                 .totalWeight(1)
                 .projectContext(projectContext)
+                .parallelism(Flow.resolveParallelism(recipe))
+                .stateStore(applicationContext.getBean(FlowStateStore.class))
                 .build();
 
         Map<String, Object> projectBaseModel = (Map<String, Object>) Utils.convertToConcurrent(recipe.get("projectModel"));
-        Map<String, Object> expandedProjectModel = (Map<String, Object>) Utils.convertToConcurrent(expand(projectContext, projectBaseModel));
+        // expand() already returns a concurrent map built from the fresh copy above, converting it again would only duplicate it
+        Map<String, Object> expandedProjectModel = expand(projectContext, projectBaseModel);
 
-        var tasks = createListOfTasks(expandedProjectModel, flow, filesMetadata);
+        var tasks = createListOfTasks(expandedProjectModel, flow, null);
 
         flow.getTasks().addAll(tasks);
 
         return flow;
     }
 
-    private List<Task> createListOfTasks(Map<String, Object> projectModel, Flow flow, Map<String, Object> filesMetadata) {
+    private List<Task> createListOfTasks(Map<String, Object> projectModel, Flow flow, Task parent) {
         var tasks = new ConcurrentLinkedList<Task>();
+        // Each task writes its own entry of the files metadata, so it's always published
+        var publishKeys = new ConcurrentLinkedList<>(Flow.resolvePublishKeys(contextService.getProjectContext().get("recipe")));
+        publishKeys.add("files_metadata");
+        var rootFolder = contextService.getProjectContext().get("rootFolder");
 
         for (Map.Entry<String, Object> fileEntry : projectModel.entrySet()) {
             String filePath = fileEntry.getKey();
@@ -144,8 +154,13 @@ class ProjectModelExecutor3 implements IExecutor {
             String extensionName = hasExtension ? fileName.substring(extensionIdx + 1) : "";
             String fileNameWithoutExtension = hasExtension ? fileName.substring(0, extensionIdx) : fileName;
 
+            // Only plain file expressions write a single known file, folders and SpEL paths expand into other tasks
+            boolean producesFile = fileValue instanceof String
+                    && !(getLastMileExpression(filePath) instanceof String lastMile && scriptService.isValidSpEL(lastMile));
+
+            // Lazily expanded children only become runnable once this task completes
+            var self = new AtomicReference<Task>();
             Runnable runnable = () -> {
-                contextService.setFlowKey(flow.getFlowKey());
                 var context = contextService.getProjectContext();
 
                 // Files paths
@@ -170,7 +185,8 @@ class ProjectModelExecutor3 implements IExecutor {
                 Map<String, Object> fileMetadata = new ConcurrentLinkedHashMap<>();
                 fileMetadata.put("meta", fileMeta);
                 fileMetadata.put("history", history);
-                filesMetadata.put(filePath, fileMetadata);
+                // Written through the task context, the shared metadata only gets the entry once the task publishes
+                contextService.getNestedForUpdate("files_metadata").put(filePath, fileMetadata);
 
                 try {
                     if (getLastMileExpression(filePath) instanceof String lastMileExpression && scriptService.isValidSpEL(lastMileExpression)) {
@@ -189,20 +205,16 @@ class ProjectModelExecutor3 implements IExecutor {
                                 innerProjectModel.put(parentPath + folderName, fileValue);
                             }
 
-                            var innerTasks = createListOfTasks(innerProjectModel, flow, filesMetadata);
-                            innerTasks.addAll(flow.getTasks());
-                            flow.getTasks().clear();
-                            flow.getTasks().addAll(innerTasks);
+                            var innerTasks = createListOfTasks(innerProjectModel, flow, self.get());
+                            flow.prependTasks(innerTasks);
                         }
                     } else if (!(fileValue instanceof String)) {
                         Map<String, Object> innerProjectModel = new ConcurrentLinkedHashMap<>();
 
                         putChildrenAsLazyTasks(filePath, fileValue, innerProjectModel);
 
-                        var innerTasks = createListOfTasks(innerProjectModel, flow, filesMetadata);
-                        innerTasks.addAll(flow.getTasks());
-                        flow.getTasks().clear();
-                        flow.getTasks().addAll(innerTasks);
+                        var innerTasks = createListOfTasks(innerProjectModel, flow, self.get());
+                        flow.prependTasks(innerTasks);
                     } else {
                         var naturalOutput = scriptService.autoEval((String) fileValue, history);
                         if (naturalOutput == null) {
@@ -225,10 +237,8 @@ class ProjectModelExecutor3 implements IExecutor {
                             Map<String, Object> innerProjectModel = new ConcurrentLinkedHashMap<>();
                             putChildrenAsLazyTasks(filePath, naturalOutput, innerProjectModel);
 
-                            var innerTasks = createListOfTasks(innerProjectModel, flow, filesMetadata);
-                            innerTasks.addAll(flow.getTasks());
-                            flow.getTasks().clear();
-                            flow.getTasks().addAll(innerTasks);
+                            var innerTasks = createListOfTasks(innerProjectModel, flow, self.get());
+                            flow.prependTasks(innerTasks);
                         }
                     }
                 } catch (Exception e) {
@@ -246,8 +256,12 @@ class ProjectModelExecutor3 implements IExecutor {
                     .startMessage("Running task for path: " + filePath)
                     .endMessage("Completed task for path: " + filePath)
                     .weight(1)
-                    .runnable(runnable)
+                    .runnable(flow.isParallel() ? contextService.isolated(flow.getFlowKey(), publishKeys, runnable) : runnable)
+                    .dependsOn(parent != null ? List.of(parent) : List.of())
+                    .inputHash(producesFile ? Utils.hashString(filePath, (String) fileValue) : null)
+                    .outputPath(producesFile ? FileUtils.restore(String.valueOf(FileUtils.absolutePathJoin(rootFolder, FileUtils.sanitize(filePath)))) : null)
                     .build();
+            self.set(task);
 
             tasks.add(task);
         }
@@ -0,0 +1,153 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import com.capco.brsp.synthesisengine.utils.FileUtils;
+import com.capco.brsp.synthesisengine.utils.Utils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Embedded store keeping the state of each task of a Flow as a small JSON file in its meta folder, so an update only
+ * rewrites the file of that task. Updates hold an exclusive file lock, so instances sharing the projects folder (same
+ * host or a shared volume) lease tasks from each other.
+ */
+public class FileFlowStateStore implements FlowStateStore {
+    public static final String FOLDER_NAME = "taskStates";
+    private static final String LOCK_FILE_NAME = "taskStates.lock";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record StoredState(String taskKey, TaskState state) {
+    }
+
+    private final Path rootFolder;
+    private final String nodeId;
+    private final Duration leaseTtl;
+
+    public FileFlowStateStore(Path rootFolder, String nodeId, Duration leaseTtl) {
+        this.rootFolder = rootFolder;
+        this.nodeId = nodeId;
+        this.leaseTtl = leaseTtl;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Duration getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    @Override
+    public boolean tryLease(String flowKey, String taskKey, long runStartedAt) {
+        return update(flowKey, taskKey, state -> {
+            var now = System.currentTimeMillis();
+            if (state != null && (state.isCompletedSince(runStartedAt) || state.isLeasedByOtherThan(nodeId, now))) {
+                return null;
+            }
+
+            return new TaskState(nodeId, EnumTaskStatus.RUNNING, now + leaseTtl.toMillis(), now);
+        });
+    }
+
+    @Override
+    public boolean renew(String flowKey, String taskKey) {
+        return update(flowKey, taskKey, state -> {
+            if (state == null || !nodeId.equals(state.nodeId()) || state.status() != EnumTaskStatus.RUNNING) {
+                return null;
+            }
+
+            return new TaskState(nodeId, EnumTaskStatus.RUNNING, System.currentTimeMillis() + leaseTtl.toMillis(), state.updatedAt());
+        });
+    }
+
+    @Override
+    public void complete(String flowKey, String taskKey) {
+        update(flowKey, taskKey, state -> {
+            var now = System.currentTimeMillis();
+            return new TaskState(nodeId, EnumTaskStatus.COMPLETE, now, now);
+        });
+    }
+
+    @Override
+    public void release(String flowKey, String taskKey) {
+        update(flowKey, taskKey, state -> {
+            if (state == null || !nodeId.equals(state.nodeId()) || state.status() != EnumTaskStatus.RUNNING) {
+                return null;
+            }
+
+            var now = System.currentTimeMillis();
+            return new TaskState(nodeId, EnumTaskStatus.ERROR, now, now);
+        });
+    }
+
+    @Override
+    public Map<String, TaskState> getTaskStates(String flowKey) {
+        var statesFolder = getStatesFolder(flowKey);
+        var states = new LinkedHashMap<String, TaskState>();
+        if (!Files.isDirectory(statesFolder)) {
+            return states;
+        }
+
+        try (var files = Files.list(statesFolder)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".json"))
+                    .map(FileFlowStateStore::read)
+                    .sorted(Comparator.comparingLong(stored -> stored.state().updatedAt()))
+                    .forEach(stored -> states.put(stored.taskKey(), stored.state()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the task states '" + statesFolder + "'", e);
+        }
+
+        return states;
+    }
+
+    private Path getStatesFolder(String flowKey) {
+        return FileUtils.absolutePathJoin(rootFolder, flowKey, "meta", FOLDER_NAME);
+    }
+
+    // The JVM lock guards the threads of this instance, the file lock the other instances. A null change leaves the
+    // state as it is and returns false
+    private synchronized boolean update(String flowKey, String taskKey, Function<TaskState, TaskState> change) {
+        var statesFolder = getStatesFolder(flowKey);
+        var path = statesFolder.resolve(Utils.hashString(taskKey) + ".json");
+
+        try {
+            Files.createDirectories(statesFolder);
+            try (var channel = FileChannel.open(statesFolder.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 var ignored = channel.lock()) {
+                var stored = Files.isRegularFile(path) ? read(path) : null;
+                var state = change.apply(stored == null ? null : stored.state());
+                if (state == null) {
+                    return false;
+                }
+
+                var tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+                MAPPER.writeValue(tempPath.toFile(), new StoredState(taskKey, state));
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update the task state '" + path + "'", e);
+        }
+    }
+
+    private static StoredState read(Path path) {
+        try {
+            return MAPPER.readValue(path.toFile(), StoredState.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the task state '" + path + "'", e);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.capco.brsp.synthesisengine.flow;
 
+import com.capco.brsp.synthesisengine.service.ContextService;
+import com.capco.brsp.synthesisengine.utils.ContextJournal;
+import com.capco.brsp.synthesisengine.utils.ContextReadRecorder;
 import com.capco.brsp.synthesisengine.utils.FileUtils;
-import com.capco.brsp.synthesisengine.utils.JsonUtils;
 import com.capco.brsp.synthesisengine.utils.Utils;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
@@ -10,10 +12,9 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
 
 import static com.capco.brsp.synthesisengine.utils.FileUtils.USER_TEMP_PROJECTS_FOLDER_PATH;
 
@@ -24,8 +25,33 @@ public class Flow {
     @JsonIgnore
     private volatile Thread executingThread;
 
+    @JsonIgnore
+    private volatile ExecutorService workers;
+
+    @JsonIgnore
+    private ContextJournal contextJournal;
+
+    @JsonIgnore
+    private TaskCompletionLedger completionLedger;
+
+    // Shared with the other nodes running the same job, each tracked task is run by the node that leases it
+    @JsonIgnore
+    @Builder.Default
+    private final FlowStateStore stateStore = new LocalFlowStateStore();
+
     public static final Map<String, Flow> PROJECT_FLOW = new ConcurrentHashMap<>();
 
+    // Flows mostly wait on LLM, HTTP, JDBC and process I/O, so each one runs on its own virtual thread
+    private static final ExecutorService FLOW_EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("flow-", 1).factory());
+
+    // Renews the leases of the tasks running on this node, see FlowStateStore#renew
+    private static final ScheduledExecutorService LEASE_RENEWER = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("flow-lease-renewer").factory());
+
+    private static final long LEASE_RETRY_MILLIS = 1000;
+    // Parallel flows only checkpoint with no task in flight, after this long new tasks wait for the running ones
+    private static final long PARALLEL_CHECKPOINT_INTERVAL_MILLIS = 60_000;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
     private final UUID uuid = UUID.randomUUID();
     private final UUID projectUUID;
     private final String contextKey;
@@ -43,11 +69,36 @@ public class Flow {
     private Task currentTask;
     private int contentHash;
     private Map<String, Object> projectContext;
+    @Builder.Default
+    private final int parallelism = 1;
+
+    public static int resolveParallelism(Object recipe) {
+        var parallelism = Utils.castOrDefault(Utils.anyCollectionGet(recipe, "config.parallelism"), Integer.class, 1);
+
+        return Math.max(1, Utils.nvl(parallelism, 1));
+    }
+
+    public static List<String> resolvePublishKeys(Object recipe) {
+        if (Utils.anyCollectionGet(recipe, "config.parallelPublish") instanceof Collection<?> publishKeys) {
+            return publishKeys.stream().map(String::valueOf).toList();
+        }
+
+        return List.of();
+    }
+
+    public boolean isParallel() {
+        return parallelism > 1;
+    }
 
     public void stop() {
         if (this.status == EnumTaskStatus.RUNNING) {
             this.status = EnumTaskStatus.INTERRUPTED;
             if (executingThread != null) executingThread.interrupt();
+            if (workers != null) workers.shutdownNow();
+            // The executing thread checkpoints once the running tasks are stopped
+            if (executingThread != null) {
+                return;
+            }
         }
 
         saveProjectContext();
@@ -58,7 +109,7 @@ public class Flow {
             log.info("Starting the Flow '{}' named as '{}' from the endpoint '{}'", uuid, name, endpoint);
 
             try {
-                this.execute();
+                ContextService.runWithFlowKey(getFlowKey(), this::execute);
                 log.info("Finished SUCCESSFULLY in '{}' the Flow '{}' named as '{}' from the endpoint '{}'", getTimeSpent(), uuid, name, endpoint);
             } catch (Exception ex) {
                 this.setLastMessage(ex.getMessage());
@@ -66,32 +117,184 @@ public class Flow {
                 ex.printStackTrace();
                 log.info("Finished UNSUCCESFULLY in '{}' the Flow '{}' named as '{}' from the endpoint '{}'", getTimeSpent(), uuid, name, endpoint);
             }
-        });
+        }, FLOW_EXECUTOR);
     }
 
+    // Appends only the entries changed since the previous checkpoint, see ContextJournal
     private void saveProjectContext() {
-        var path = FileUtils.absolutePathJoin(USER_TEMP_PROJECTS_FOLDER_PATH, getFlowKey(), "meta", "projectContext");
-        String projectContextString = JsonUtils.writeAsJsonStringCircular(this.getProjectContext(), true, false);
-        FileUtils.writeFile(path, projectContextString, true);
+        if (contextJournal == null) {
+            contextJournal = new ContextJournal(getJournalFolder(getMetaFolder(), stateStore));
+        }
+
+        try {
+            contextJournal.checkpoint(this.getProjectContext());
+        } catch (RuntimeException ex) {
+            log.error("Failed to checkpoint the project context of the Flow '{}'", name, ex);
+        }
+    }
+
+    /**
+     * Folder of the context checkpoint of this node. Nodes sharing a store each keep their own context, so each one
+     * checkpoints it apart from the others.
+     */
+    public static Path getJournalFolder(Path metaFolder, FlowStateStore stateStore) {
+        if (!stateStore.isShared()) {
+            return metaFolder;
+        }
+
+        return metaFolder.resolve("nodes").resolve(stateStore.getNodeId().replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private Path getMetaFolder() {
+        return FileUtils.absolutePathJoin(USER_TEMP_PROJECTS_FOLDER_PATH, getFlowKey(), "meta");
+    }
+
+    private synchronized TaskCompletionLedger getCompletionLedger() {
+        if (completionLedger == null) {
+            completionLedger = new TaskCompletionLedger(getMetaFolder());
+        }
+
+        return completionLedger;
+    }
+
+    // Tracked tasks record what they read from the context, so a later run only redoes them when that changed. They
+    // are also leased, false means another node is running it and the task has to be retried later
+    private boolean runTask(Task task, String messagePrefix) {
+        var flowKeyOverride = ContextService.getFlowKeyOverride();
+        try {
+            if (!task.isTracked()) {
+                task.execute(messagePrefix);
+                return true;
+            }
+
+            if (getCompletionLedger().isUpToDate(task, projectContext)) {
+                task.skip(messagePrefix);
+                return true;
+            }
+
+            var flowKey = getFlowKey();
+            var taskKey = task.getLeaseKey();
+            if (task.isDeferred()) {
+                try {
+                    Thread.sleep(LEASE_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            if (!stateStore.tryLease(flowKey, taskKey, getRunStartedAt())) {
+                var state = stateStore.getTaskStates(flowKey).get(taskKey);
+                if (state != null && state.isCompletedSince(getRunStartedAt())) {
+                    task.skip(messagePrefix, "completed by the node '" + state.nodeId() + "'");
+                    return true;
+                }
+
+                task.setDeferred(true);
+                return false;
+            }
+
+            task.setDeferred(false);
+            var renewal = scheduleLeaseRenewal(flowKey, taskKey);
+            try {
+                var recorder = new ContextReadRecorder(projectContext);
+                recorder.run(() -> task.execute(messagePrefix));
+                getCompletionLedger().recordCompletion(task, recorder.getDependencies());
+            } catch (RuntimeException ex) {
+                stateStore.release(flowKey, taskKey);
+                throw ex;
+            } finally {
+                renewal.cancel(false);
+            }
+            stateStore.complete(flowKey, taskKey);
+
+            return true;
+        } finally {
+            // A flow key set inside the task must not leak into the next tasks run on this thread
+            ContextService.restoreFlowKeyOverride(flowKeyOverride);
+        }
+    }
+
+    // A task running longer than the lease TTL would otherwise be taken over and run again by another node
+    private ScheduledFuture<?> scheduleLeaseRenewal(String flowKey, String taskKey) {
+        var period = Math.max(LEASE_RETRY_MILLIS, stateStore.getLeaseTtl().toMillis() / 3);
+
+        return LEASE_RENEWER.scheduleAtFixedRate(() -> {
+            try {
+                if (!stateStore.renew(flowKey, taskKey)) {
+                    log.warn("The lease of the task '{}' of the Flow '{}' is no longer held by this node", taskKey, name);
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Failed to renew the lease of the task '{}' of the Flow '{}'", taskKey, name, ex);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Back to the queue, at the end unless it's exclusive, so the barrier stays in place
+    private void deferTask(Task task) {
+        polledTasks.remove(task);
+        if (task.isExclusive()) {
+            prependTasks(List.of(task));
+            return;
+        }
+
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+    }
+
+    private long getRunStartedAt() {
+        return startedAt == null ? 0 : startedAt.getTime();
+    }
+
+    /**
+     * The states of the tracked tasks on every node, tasks still waiting here may be running or done on another one.
+     */
+    @JsonIgnore
+    public Map<String, FlowStateStore.TaskState> getTaskStates() {
+        var runStartedAt = getRunStartedAt();
+        var states = new LinkedHashMap<String, FlowStateStore.TaskState>();
+        stateStore.getTaskStates(getFlowKey()).forEach((taskKey, state) -> {
+            if (state.status() != EnumTaskStatus.COMPLETE || state.isCompletedSince(runStartedAt)) {
+                states.put(taskKey, state);
+            }
+        });
+
+        return states;
+    }
+
+    public EnumTaskStatus getTaskStatus(Task task, Map<String, FlowStateStore.TaskState> states) {
+        if (task.getStatus() == EnumTaskStatus.NEW && task.isTracked() && states.get(task.getLeaseKey()) instanceof FlowStateStore.TaskState state) {
+            return state.status();
+        }
+
+        return task.getStatus();
     }
 
     private boolean isTasksPending() {
         return !this.tasks.isEmpty() || (this.currentTask != null && this.currentTask.getStatus() == EnumTaskStatus.NEW);
     }
 
-    private void execute() {
+    void execute() {
         executingThread = Thread.currentThread();
 
         if (!isTasksPending()) {
             return;
         }
 
+        checkStateStoreSupport();
+
         this.setStartedAt(new Date());
         this.setStatus(EnumTaskStatus.RUNNING);
 
         lastMessage = startMessage;
         log.info(startMessage);
 
+        if (isParallel()) {
+            executeParallel();
+            return;
+        }
+
         while (isTasksPending()) {
             if (Thread.currentThread().isInterrupted()) {
                 this.status = EnumTaskStatus.INTERRUPTED;
@@ -102,12 +305,20 @@ public class Flow {
 
             try {
                 if (status != EnumTaskStatus.INTERRUPTED) {
-                    Task task = currentTask != null && currentTask.getStatus() == EnumTaskStatus.NEW ? currentTask : poll();
+                    Task task = currentTask != null && currentTask.getStatus() == EnumTaskStatus.NEW ? currentTask : pollIfRunnable(0);
+                    if (task == null) {
+                        throw new IllegalStateException("None of the " + tasks.size() + " pending tasks of the Flow '" + name + "' has its dependencies completed");
+                    }
                     this.setCurrentTask(task);
 
                     lastMessage = task.getStartMessage();
-                    task.execute("[" + polledTasks.size() + "/" + (tasks.size() + polledTasks.size()) + "]");
+                    if (!runTask(task, "[" + polledTasks.size() + "/" + (tasks.size() + polledTasks.size()) + "]")) {
+                        deferTask(task);
+                        this.setCurrentTask(null);
+                        continue;
+                    }
                     lastMessage = task.getEndMessage();
+                    saveProjectContext();
                 } else {
                     return;
                 }
@@ -129,6 +340,208 @@ public class Flow {
         saveProjectContext();
     }
 
+    // The nodes sharing a store don't share their project context, so the tasks reading what the others wrote (the
+    // barriers, the afterAll tasks and the publishing of parallel tasks) would only see part of it
+    private void checkStateStoreSupport() {
+        if (!stateStore.isShared()) {
+            return;
+        }
+
+        var unsupported = isParallel() ? "parallelism" : tasks.stream()
+                .filter(task -> task.isExclusive() || task.isAfterAll())
+                .findFirst()
+                .map(task -> "the exclusive or afterAll task '" + task.getName() + "'")
+                .orElse(null);
+        if (unsupported != null) {
+            throw new IllegalStateException("The Flow '" + name + "' can't run with " + unsupported + " on the shared flow state store of the node '"
+                    + stateStore.getNodeId() + "', the nodes don't share their project context. Use the local store (configs.flow.stateStore.type: local)");
+        }
+    }
+
+    private void executeParallel() {
+        if (currentTask != null && currentTask.getStatus() == EnumTaskStatus.NEW) {
+            polledTasks.remove(currentTask);
+            prependTasks(List.of(currentTask));
+        }
+
+        // One virtual thread per task, parallelism only bounds how many tasks are in flight
+        var flowKey = getFlowKey();
+        var pool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("flow-" + flowKey + "-worker-", 1).factory());
+        this.workers = pool;
+
+        var completionService = new ExecutorCompletionService<Boolean>(pool);
+        Map<Future<Boolean>, Task> running = new HashMap<>();
+        int inFlight = 0;
+        Task failedTask = null;
+        RuntimeException failure = null;
+        boolean checkpointPending = false;
+        long lastCheckpoint = System.currentTimeMillis();
+
+        log.info("Flow '{}' running in parallel mode with up to {} concurrent tasks", name, parallelism);
+
+        try {
+            while (true) {
+                if (Thread.currentThread().isInterrupted() || status == EnumTaskStatus.INTERRUPTED) {
+                    this.status = EnumTaskStatus.INTERRUPTED;
+                    log.info("Flow '{}' interrupted", name);
+                    checkpointAfterStopping(pool);
+                    return;
+                }
+
+                var draining = checkpointPending && System.currentTimeMillis() - lastCheckpoint >= PARALLEL_CHECKPOINT_INTERVAL_MILLIS;
+                Task task = failure == null && !draining && inFlight < parallelism ? pollIfRunnable(inFlight) : null;
+
+                if (task != null) {
+                    this.setCurrentTask(task);
+                    lastMessage = task.getStartMessage();
+                    var messagePrefix = "[" + polledTasks.size() + "/" + getTotalTasks() + "]";
+
+                    if (task.isExclusive()) {
+                        try {
+                            if (runTask(task, messagePrefix)) {
+                                lastMessage = task.getEndMessage();
+                                saveProjectContext();
+                            } else {
+                                deferTask(task);
+                            }
+                        } catch (RuntimeException ex) {
+                            failedTask = task;
+                            failure = ex;
+                        }
+                    } else {
+                        var future = completionService.submit(() -> ContextService.callWithFlowKey(flowKey, () -> runTask(task, messagePrefix)));
+                        running.put(future, task);
+                        inFlight++;
+                    }
+
+                    continue;
+                }
+
+                if (inFlight == 0) {
+                    if (failure != null || tasks.isEmpty()) {
+                        break;
+                    }
+
+                    failure = new IllegalStateException("None of the " + tasks.size() + " pending tasks of the Flow '" + name + "' has its dependencies completed");
+                    break;
+                }
+
+                var done = completionService.take();
+                var doneTask = running.remove(done);
+                inFlight--;
+
+                try {
+                    if (done.get()) {
+                        lastMessage = doneTask.getEndMessage();
+                        checkpointPending = true;
+                    } else {
+                        deferTask(doneTask);
+                    }
+                } catch (ExecutionException ex) {
+                    var cause = ex.getCause();
+                    if (failure == null) {
+                        failedTask = doneTask;
+                        failure = cause instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(cause);
+                    }
+                }
+
+                // The running tasks update the context, so it's only checkpointed once none is left
+                if (checkpointPending && inFlight == 0) {
+                    saveProjectContext();
+                    checkpointPending = false;
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.status = EnumTaskStatus.INTERRUPTED;
+            log.info("Flow '{}' interrupted", name);
+            checkpointAfterStopping(pool);
+            return;
+        } finally {
+            pool.shutdownNow();
+            this.workers = null;
+        }
+
+        if (failure != null) {
+            if (failedTask != null) {
+                this.setCurrentTask(failedTask);
+            }
+            setFinishedAt(new Date());
+            setStatus(EnumTaskStatus.ERROR);
+            lastMessage = failure.getMessage();
+            saveProjectContext();
+            throw failure;
+        }
+
+        lastMessage = endMessage;
+        log.info(endMessage);
+
+        this.setFinishedAt(new Date());
+        this.setStatus(EnumTaskStatus.COMPLETE);
+
+        saveProjectContext();
+    }
+
+    // The interrupted workers get a moment to stop, the context is only checkpointed once none is running
+    private void checkpointAfterStopping(ExecutorService pool) {
+        pool.shutdownNow();
+        var interrupted = Thread.interrupted();
+        try {
+            if (pool.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                saveProjectContext();
+            } else {
+                log.warn("Flow '{}' tasks still running {}s after the interruption, its context is not checkpointed", name, STOP_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // O(1) per task when the Flow is backed by a Deque, the other queues still need to be rebuilt
+    public void prependTasks(Collection<Task> newTasks) {
+        synchronized (tasks) {
+            if (tasks instanceof Deque<Task> deque) {
+                new ArrayList<>(newTasks).reversed().forEach(deque::addFirst);
+                return;
+            }
+
+            var remainingTasks = new ArrayList<>(tasks);
+            tasks.clear();
+            tasks.addAll(newTasks);
+            tasks.addAll(remainingTasks);
+        }
+    }
+
+    // Picks the first task whose dependencies are completed. Exclusive tasks act as barriers, nothing queued after
+    // them is picked before they run
+    private Task pollIfRunnable(int inFlight) {
+        synchronized (tasks) {
+            var iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                var next = iterator.next();
+                if (next.isExclusive()) {
+                    if (inFlight > 0 || !next.isReady()) {
+                        return null;
+                    }
+                } else if (!next.isReady()) {
+                    continue;
+                }
+
+                iterator.remove();
+                polledTasks.add(next);
+
+                return next;
+            }
+
+            return null;
+        }
+    }
+
     private List<Task> getTasksDone() {
         return polledTasks.stream().filter(it -> it.getStatus().equals(EnumTaskStatus.COMPLETE)).toList();
     }
@@ -149,13 +562,6 @@ public class Flow {
         return weightDone.divide(BigDecimal.valueOf(totalWeight), 2, RoundingMode.HALF_DOWN).multiply(new BigDecimal(100));
     }
 
-    private Task poll() {
-        Task task = this.tasks.poll();
-        polledTasks.add(task);
-
-        return task;
-    }
-
     public String getTimeSpent() {
         return Utils.diffBetweenDates(startedAt, Utils.nvl(finishedAt, new Date()));
     }
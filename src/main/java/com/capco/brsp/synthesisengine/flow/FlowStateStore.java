@@ -0,0 +1,50 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Shared record of which node runs or has completed each task of a Flow, so several instances running the same job
+ * lease its tasks instead of all running them, and any of them can report the progress made by the others. Only the
+ * task states are shared, each node keeps its own project context, so a shared store refuses the Flows whose tasks
+ * read what the other tasks wrote, see {@code Flow#checkStateStoreSupport}.
+ */
+public interface FlowStateStore {
+
+    record TaskState(String nodeId, EnumTaskStatus status, long leaseUntil, long updatedAt) {
+        public boolean isLeasedByOtherThan(String askingNodeId, long now) {
+            return status == EnumTaskStatus.RUNNING && leaseUntil > now && !nodeId.equals(askingNodeId);
+        }
+
+        // Completions older than the current run are left from a previous one and don't count
+        public boolean isCompletedSince(long runStartedAt) {
+            return status == EnumTaskStatus.COMPLETE && updatedAt >= runStartedAt;
+        }
+    }
+
+    String getNodeId();
+
+    // Shared by several instances, each with its own project context
+    default boolean isShared() {
+        return true;
+    }
+
+    // Leases of tasks neither completed nor released by then expire, so the tasks of a node that died get taken over
+    Duration getLeaseTtl();
+
+    /**
+     * Leases the task to this node, false when it was completed since the run started or is leased by another node
+     * whose lease hasn't expired yet.
+     */
+    boolean tryLease(String flowKey, String taskKey, long runStartedAt);
+
+    // Pushes the lease of a task still running on this node further, false when it isn't leased to this node anymore
+    boolean renew(String flowKey, String taskKey);
+
+    void complete(String flowKey, String taskKey);
+
+    // Gives the lease back after a failure, so any node can retry the task
+    void release(String flowKey, String taskKey);
+
+    Map<String, TaskState> getTaskStates(String flowKey);
+}
@@ -0,0 +1,103 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Store backed by a table shared by every node, leases are taken with an insert or a conditional update, so the
+ * database decides which node gets each task.
+ */
+public class JdbcFlowStateStore implements FlowStateStore {
+    private static final String TABLE_NAME = "flow_task_state";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nodeId;
+    private final Duration leaseTtl;
+
+    public JdbcFlowStateStore(DataSource dataSource, String nodeId, Duration leaseTtl) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.nodeId = nodeId;
+        this.leaseTtl = leaseTtl;
+
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                "flow_key VARCHAR(255) NOT NULL, " +
+                "task_key VARCHAR(1024) NOT NULL, " +
+                "node_id VARCHAR(255) NOT NULL, " +
+                "status VARCHAR(32) NOT NULL, " +
+                "lease_until BIGINT NOT NULL, " +
+                "updated_at BIGINT NOT NULL, " +
+                "PRIMARY KEY (flow_key, task_key))");
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Duration getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    @Override
+    public boolean tryLease(String flowKey, String taskKey, long runStartedAt) {
+        var now = System.currentTimeMillis();
+        var leaseUntil = now + leaseTtl.toMillis();
+
+        try {
+            jdbcTemplate.update("INSERT INTO " + TABLE_NAME + " (flow_key, task_key, node_id, status, lease_until, updated_at) VALUES (?, ?, ?, ?, ?, ?)",
+                    flowKey, taskKey, nodeId, EnumTaskStatus.RUNNING.name(), leaseUntil, now);
+            return true;
+        } catch (DataIntegrityViolationException ignored) {
+            // Already known, it can be taken over when not completed in this run nor actively leased by another node
+        }
+
+        return jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET node_id = ?, status = ?, lease_until = ?, updated_at = ? " +
+                        "WHERE flow_key = ? AND task_key = ? AND (status <> ? OR updated_at < ?) AND (node_id = ? OR status <> ? OR lease_until <= ?)",
+                nodeId, EnumTaskStatus.RUNNING.name(), leaseUntil, now,
+                flowKey, taskKey, EnumTaskStatus.COMPLETE.name(), runStartedAt, nodeId, EnumTaskStatus.RUNNING.name(), now) == 1;
+    }
+
+    @Override
+    public boolean renew(String flowKey, String taskKey) {
+        var leaseUntil = System.currentTimeMillis() + leaseTtl.toMillis();
+
+        return jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET lease_until = ? WHERE flow_key = ? AND task_key = ? AND node_id = ? AND status = ?",
+                leaseUntil, flowKey, taskKey, nodeId, EnumTaskStatus.RUNNING.name()) == 1;
+    }
+
+    @Override
+    public void complete(String flowKey, String taskKey) {
+        var now = System.currentTimeMillis();
+        var updated = jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET node_id = ?, status = ?, lease_until = ?, updated_at = ? WHERE flow_key = ? AND task_key = ?",
+                nodeId, EnumTaskStatus.COMPLETE.name(), now, now, flowKey, taskKey);
+        if (updated == 0) {
+            jdbcTemplate.update("INSERT INTO " + TABLE_NAME + " (flow_key, task_key, node_id, status, lease_until, updated_at) VALUES (?, ?, ?, ?, ?, ?)",
+                    flowKey, taskKey, nodeId, EnumTaskStatus.COMPLETE.name(), now, now);
+        }
+    }
+
+    @Override
+    public void release(String flowKey, String taskKey) {
+        var now = System.currentTimeMillis();
+        jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET status = ?, lease_until = ?, updated_at = ? WHERE flow_key = ? AND task_key = ? AND node_id = ? AND status = ?",
+                EnumTaskStatus.ERROR.name(), now, now, flowKey, taskKey, nodeId, EnumTaskStatus.RUNNING.name());
+    }
+
+    @Override
+    public Map<String, TaskState> getTaskStates(String flowKey) {
+        var states = new LinkedHashMap<String, TaskState>();
+        jdbcTemplate.query("SELECT task_key, node_id, status, lease_until, updated_at FROM " + TABLE_NAME + " WHERE flow_key = ? ORDER BY updated_at",
+                rs -> {
+                    states.put(rs.getString("task_key"), new TaskState(rs.getString("node_id"), EnumTaskStatus.valueOf(rs.getString("status")),
+                            rs.getLong("lease_until"), rs.getLong("updated_at")));
+                }, flowKey);
+
+        return states;
+    }
+}
@@ -0,0 +1,104 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory store for a single instance and for tests, several instances can share one to act as separate nodes.
+ */
+public class LocalFlowStateStore implements FlowStateStore {
+    private final String nodeId;
+    private final Duration leaseTtl;
+    private final Map<String, Map<String, TaskState>> states;
+
+    public LocalFlowStateStore() {
+        this(UUID.randomUUID().toString(), Duration.ofMinutes(30));
+    }
+
+    public LocalFlowStateStore(String nodeId, Duration leaseTtl) {
+        this(nodeId, leaseTtl, new ConcurrentHashMap<>());
+    }
+
+    private LocalFlowStateStore(String nodeId, Duration leaseTtl, Map<String, Map<String, TaskState>> states) {
+        this.nodeId = nodeId;
+        this.leaseTtl = leaseTtl;
+        this.states = states;
+    }
+
+    // Another node sharing the same states
+    public LocalFlowStateStore asNode(String otherNodeId) {
+        return new LocalFlowStateStore(otherNodeId, leaseTtl, states);
+    }
+
+    private Map<String, TaskState> flowStates(String flowKey) {
+        return states.computeIfAbsent(flowKey, key -> new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public Duration getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    @Override
+    public boolean tryLease(String flowKey, String taskKey, long runStartedAt) {
+        var now = System.currentTimeMillis();
+        var leased = new boolean[1];
+        flowStates(flowKey).compute(taskKey, (key, state) -> {
+            if (state != null && (state.isCompletedSince(runStartedAt) || state.isLeasedByOtherThan(nodeId, now))) {
+                return state;
+            }
+
+            leased[0] = true;
+            return new TaskState(nodeId, EnumTaskStatus.RUNNING, now + leaseTtl.toMillis(), now);
+        });
+
+        return leased[0];
+    }
+
+    @Override
+    public boolean renew(String flowKey, String taskKey) {
+        var leaseUntil = System.currentTimeMillis() + leaseTtl.toMillis();
+        var renewed = new boolean[1];
+        flowStates(flowKey).computeIfPresent(taskKey, (key, state) -> {
+            if (!nodeId.equals(state.nodeId()) || state.status() != EnumTaskStatus.RUNNING) {
+                return state;
+            }
+
+            renewed[0] = true;
+            return new TaskState(nodeId, EnumTaskStatus.RUNNING, leaseUntil, state.updatedAt());
+        });
+
+        return renewed[0];
+    }
+
+    @Override
+    public void complete(String flowKey, String taskKey) {
+        var now = System.currentTimeMillis();
+        flowStates(flowKey).put(taskKey, new TaskState(nodeId, EnumTaskStatus.COMPLETE, now, now));
+    }
+
+    @Override
+    public void release(String flowKey, String taskKey) {
+        var now = System.currentTimeMillis();
+        flowStates(flowKey).computeIfPresent(taskKey, (key, state) -> nodeId.equals(state.nodeId()) && state.status() == EnumTaskStatus.RUNNING
+                ? new TaskState(nodeId, EnumTaskStatus.ERROR, now, now)
+                : state);
+    }
+
+    @Override
+    public Map<String, TaskState> getTaskStates(String flowKey) {
+        return Map.copyOf(flowStates(flowKey));
+    }
+}
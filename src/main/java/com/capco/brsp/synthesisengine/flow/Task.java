@@ -1,8 +1,11 @@
 package com.capco.brsp.synthesisengine.flow;
 
 import com.capco.brsp.synthesisengine.utils.Utils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Date;
@@ -23,6 +26,26 @@ public class Task {
     private EnumTaskStatus status;
     private final Integer weight;
     private final Runnable runnable;
+    // Exclusive tasks never overlap with other tasks when the Flow runs in parallel mode
+    private final boolean exclusive;
+    // Runs once every other task of the Flow is complete
+    private final boolean afterAll;
+    // Tasks that must be COMPLETE before this one is picked, e.g. the parent of a lazily expanded folder
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @Builder.Default
+    private final List<Task> dependsOn = List.of();
+    // Tasks producing a single file can be skipped when their input and output are unchanged, see TaskCompletionLedger
+    private final String inputHash;
+    private final String outputPath;
+    // Set when another node held its lease, so the next attempt waits a little before asking again
+    @JsonIgnore
+    private volatile boolean deferred;
+
+    public boolean isReady() {
+        return dependsOn.stream().allMatch(it -> it.getStatus() == EnumTaskStatus.COMPLETE);
+    }
 
     public void execute(String messagePrefix) {
         this.setStartedAt(new Date());
@@ -43,6 +66,27 @@ public class Task {
         this.setStatus(EnumTaskStatus.COMPLETE);
     }
 
+    public boolean isTracked() {
+        return inputHash != null && outputPath != null;
+    }
+
+    // Same name and input on every node running the Flow, see FlowStateStore
+    @JsonIgnore
+    public String getLeaseKey() {
+        return name + "@" + inputHash;
+    }
+
+    public void skip(String messagePrefix) {
+        skip(messagePrefix, "up-to-date");
+    }
+
+    public void skip(String messagePrefix, String reason) {
+        this.setStartedAt(new Date());
+        log.info("{} Skipping the {} task: {}", messagePrefix, reason, name);
+        this.setFinishedAt(new Date());
+        this.setStatus(EnumTaskStatus.COMPLETE);
+    }
+
     public String getTimeSpent() {
         return Utils.diffBetweenDates(startedAt, Utils.nvl(finishedAt, new Date()));
     }
@@ -0,0 +1,111 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import com.capco.brsp.synthesisengine.utils.ContextReadRecorder;
+import com.capco.brsp.synthesisengine.utils.FileUtils;
+import com.capco.brsp.synthesisengine.utils.JsonUtils;
+import com.capco.brsp.synthesisengine.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Durable completion records of the Flow tasks that produce a file, appended as JSON lines under the project meta
+ * folder. A task is up-to-date when its input hash didn't change, its output file still has the recorded hash and
+ * every context value it read still hashes the same, so a restarted or re-submitted Flow skips it.
+ */
+@Slf4j
+public class TaskCompletionLedger {
+    public static final String FILE_NAME = "taskCompletions.jsonl";
+
+    private final Path path;
+    private final Map<String, CompletionRecord> records = new ConcurrentHashMap<>();
+
+    // The dependencies map each context path the task read to the hash of the value it had, see ContextReadRecorder
+    public record CompletionRecord(String outputPath, String inputHash, String outputHash, Map<String, String> dependencies, long completedAt) {
+    }
+
+    public TaskCompletionLedger(Path metaFolder) {
+        this.path = metaFolder.resolve(FILE_NAME);
+
+        if (FileUtils.isFileExists(path)) {
+            try (var lines = Files.lines(path)) {
+                lines.filter(line -> !line.isBlank()).forEach(line -> {
+                    try {
+                        var record = JsonUtils.readAs(line, CompletionRecord.class);
+                        records.put(record.outputPath(), record);
+                    } catch (IOException e) {
+                        log.warn("Ignoring an unreadable task completion record of '{}': {}", path, line);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the task completion records '" + path + "'", e);
+            }
+        }
+    }
+
+    public boolean isUpToDate(Task task, Map<String, Object> context) {
+        if (!task.isTracked() || !(records.get(task.getOutputPath()) instanceof CompletionRecord record)) {
+            return false;
+        }
+
+        if (!record.inputHash().equals(task.getInputHash()) || !record.outputHash().equals(hashFile(Path.of(task.getOutputPath())))) {
+            return false;
+        }
+
+        var dependencies = Utils.nvl(record.dependencies(), Map.<String, String>of());
+        for (var dependency : dependencies.entrySet()) {
+            if (!dependency.getValue().equals(ContextReadRecorder.hashAt(context, dependency.getKey()))) {
+                log.info("The task '{}' is outdated, the context value at {} has changed", task.getName(), dependency.getKey());
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Tasks that didn't write their output file (skipped files, expanded folders) are not recorded
+    public void recordCompletion(Task task, Map<String, String> dependencies) {
+        if (!task.isTracked()) {
+            return;
+        }
+
+        var outputHash = hashFile(Path.of(task.getOutputPath()));
+        if (outputHash == null) {
+            records.remove(task.getOutputPath());
+            return;
+        }
+
+        var record = new CompletionRecord(task.getOutputPath(), task.getInputHash(), outputHash, dependencies, System.currentTimeMillis());
+        records.put(record.outputPath(), record);
+
+        synchronized (this) {
+            FileUtils.writeFile(path, JsonUtils.writeAsJsonString(record, false) + System.lineSeparator(), true);
+        }
+    }
+
+    static String hashFile(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (var in = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (IOException e) {
+            log.warn("Failed to hash the file '{}'", file, e);
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Hashing algorithm not found", e);
+        }
+    }
+}
@@ -28,7 +28,7 @@ public class DescriptiveErrorListener extends BaseErrorListener {
     @Setter
     private boolean throwException = true;
 
-    private DescriptiveErrorListener() {
+    public DescriptiveErrorListener() {
     }
 
     public static DescriptiveErrorListener getInstance() {
@@ -107,6 +107,8 @@ public class AgentRegistryService {
         out.setTools(nonNull(override.getTools(), base.getTools()));
         out.setStopSequences(nonNull(override.getStopSequences(), base.getStopSequences()));
         out.setMetadata(nonNull(override.getMetadata(), base.getMetadata()));
+        out.setCache(nonNull(override.getCache(), base.getCache()));
+        out.setStream(nonNull(override.getStream(), base.getStream()));
         return out;
     }
 
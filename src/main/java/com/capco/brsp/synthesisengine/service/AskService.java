@@ -0,0 +1,98 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedList;
+import com.capco.brsp.synthesisengine.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Questions raised by {@code @@@ask} and waiting for a user answer. The asking task waits on a completion signal
+ * that {@code /responseAnswers} completes, Flow tasks run on virtual threads, so the wait parks the task and frees its
+ * carrier thread instead of polling. The timeout comes from the {@code $askTimeoutSeconds} context entry when set,
+ * so a recipe can change it before each ask, else from {@code configs.ask.timeoutSeconds}. The queue of open asks
+ * lives in the shared project context, where {@code /progress} and {@code /responseAnswers} look for it, even when
+ * the asking task runs over its own overlay.
+ */
+@Slf4j
+@Service(value = "askService")
+public class AskService {
+    public static final String ASK_QUEUE_KEY = "askQueue";
+    public static final String ASK_TIMEOUT_KEY = "$askTimeoutSeconds";
+
+    @Autowired
+    @Qualifier("contextService")
+    private ContextService contextService;
+
+    @Value("${configs.ask.timeoutSeconds:30}")
+    private long timeoutSeconds = 30;
+
+    private final Map<String, CompletableFuture<Object>> pendingAsks = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public Object ask(String flowKey, Map<String, Object> projectContext, String key, String question, List<String> values) throws InterruptedException {
+        var sharedProjectContext = Utils.nvl(contextService.getSharedProjectContext(), projectContext);
+        var askQueue = (List<Map<String, Object>>) sharedProjectContext.computeIfAbsent(ASK_QUEUE_KEY, _ -> new ConcurrentLinkedList<Map<String, Object>>());
+        Map<String, Object> ask = new ConcurrentLinkedHashMap<>();
+        ask.put("key", key);
+        ask.put("type", values.isEmpty() ? "INPUT" : "BUTTONS");
+        ask.put("label", question);
+        ask.put("values", new ConcurrentLinkedList<>(values));
+
+        var answer = new CompletableFuture<Object>();
+        var previous = pendingAsks.put(pendingKey(flowKey, key), answer);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        askQueue.add(ask);
+
+        var timeout = getTimeout(projectContext);
+        log.warn("Waiting {}s for a User response to '{}'!", timeout.toSeconds(), key);
+        try {
+            return answer.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            askQueue.remove(ask);
+            log.error("Ask Timeout!");
+            throw new RuntimeException("Ask Timeout! No answer to '" + key + "' after " + timeout.toSeconds() + "s");
+        } catch (CancellationException e) {
+            // The same key was asked again, the new ask replaced this one
+            askQueue.remove(ask);
+            log.error("Ask Cancelled!");
+            throw new RuntimeException("Ask Cancelled! No answer to '" + key + "' before it was asked again");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to wait the answer to '" + key + "'", e.getCause());
+        } finally {
+            pendingAsks.remove(pendingKey(flowKey, key), answer);
+        }
+    }
+
+    /**
+     * Resumes the task waiting on the ask, false when none is waiting (never asked, already answered or timed out).
+     */
+    public boolean answer(String flowKey, String key, Object value) {
+        var answer = pendingAsks.remove(pendingKey(flowKey, key));
+
+        return answer != null && answer.complete(value);
+    }
+
+    private Duration getTimeout(Map<String, Object> projectContext) {
+        return Duration.ofSeconds(Utils.castOrDefault(projectContext.get(ASK_TIMEOUT_KEY), Long.class, timeoutSeconds));
+    }
+
+    private static String pendingKey(String flowKey, String key) {
+        return flowKey + "#" + key;
+    }
+}
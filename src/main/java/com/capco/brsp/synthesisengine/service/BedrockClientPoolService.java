@@ -0,0 +1,103 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
+import com.capco.brsp.synthesisengine.utils.Utils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps one long-lived {@link BedrockRuntimeClient} per region, credentials and timeout, so Bedrock prompts reuse
+ * pooled, already handshaken connections instead of building a client for every call.
+ */
+@Slf4j
+@Service(value = "bedrockClientPoolService")
+public class BedrockClientPoolService {
+    private final Map<String, BedrockRuntimeClient> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong totalCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+
+    @Value("${llm.bedrock.max-connections:64}")
+    private int maxConnections = 64;
+    @Value("${llm.bedrock.connection-timeout-seconds:10}")
+    private long connectionTimeoutSeconds = 10;
+    @Value("${llm.bedrock.connection-acquisition-timeout-seconds:60}")
+    private long connectionAcquisitionTimeoutSeconds = 60;
+    @Value("${llm.bedrock.connection-max-idle-seconds:60}")
+    private long connectionMaxIdleSeconds = 60;
+
+    public BedrockRuntimeClient getClient(Region region, String accessKey, String secretKey, Duration timeout) {
+        var clientKey = Utils.hashString(region.id(), String.valueOf(accessKey), String.valueOf(secretKey), timeout.toString());
+
+        return clients.computeIfAbsent(clientKey, it -> {
+            log.info("Creating pooled Bedrock runtime client for region {} (timeout {}, max connections {})", region.id(), timeout, maxConnections);
+
+            return BedrockRuntimeClient.builder()
+                    .region(region)
+                    .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)))
+                    .httpClient(ApacheHttpClient.builder()
+                            .maxConnections(maxConnections)
+                            .socketTimeout(timeout)
+                            .connectionTimeout(Duration.ofSeconds(connectionTimeoutSeconds))
+                            .connectionAcquisitionTimeout(Duration.ofSeconds(connectionAcquisitionTimeoutSeconds))
+                            .connectionMaxIdleTime(Duration.ofSeconds(connectionMaxIdleSeconds))
+                            .tcpKeepAlive(true)
+                            .build())
+                    .overrideConfiguration(c -> c.apiCallTimeout(timeout))
+                    .build();
+        });
+    }
+
+    public <T> T call(BedrockRuntimeClient client, Function<BedrockRuntimeClient, T> call) {
+        totalCalls.incrementAndGet();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            return call.apply(client);
+        } catch (RuntimeException ex) {
+            failedCalls.incrementAndGet();
+            throw ex;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+        stats.put("clients", clients.size());
+        stats.put("maxConnectionsPerClient", maxConnections);
+        stats.put("inFlight", inFlight.get());
+        stats.put("peakInFlight", peakInFlight.get());
+        stats.put("poolSaturation", clients.isEmpty() ? 0.0 : (double) inFlight.get() / (maxConnections * clients.size()));
+        stats.put("totalCalls", totalCalls.get());
+        stats.put("failedCalls", failedCalls.get());
+
+        return stats;
+    }
+
+    @PreDestroy
+    private void close() {
+        clients.values().forEach(client -> {
+            try {
+                client.close();
+            } catch (Exception ex) {
+                log.warn("Failed to close Bedrock runtime client: {}", ex.getMessage());
+            }
+        });
+        clients.clear();
+    }
+}
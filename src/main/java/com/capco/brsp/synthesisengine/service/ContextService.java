@@ -2,22 +2,57 @@ package com.capco.brsp.synthesisengine.service;
 
 import com.capco.brsp.synthesisengine.flow.Flow;
 import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
+import com.capco.brsp.synthesisengine.utils.OverlayContextMap;
 import com.capco.brsp.synthesisengine.utils.Utils;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @Service("contextService")
 public class ContextService {
     private static final ConcurrentLinkedHashMap<String, ConcurrentLinkedHashMap<String, Object>> CONTEXT = new ConcurrentLinkedHashMap<>();
 
+    // Bound once per flow/task thread, so virtual threads don't need to carry a ThreadLocal map each
+    public static final ScopedValue<String> FLOW_KEY = ScopedValue.newInstance();
+
+    private static final ScopedValue<OverlayContextMap<String, Object>> CONTEXT_OVERLAY = ScopedValue.newInstance();
+
+    // Explicit setFlowKey calls (controllers, Groovy scripts) override the bound flow key on the current thread
     private static final ThreadLocal<String> THREAD_FLOW_CONTEXT_MAPPING = new ThreadLocal<>();
 
     public String getFlowKey() {
+        var flowKey = THREAD_FLOW_CONTEXT_MAPPING.get();
+
+        return flowKey != null || !FLOW_KEY.isBound() ? flowKey : FLOW_KEY.get();
+    }
+
+    public static void runWithFlowKey(String flowKey, Runnable runnable) {
+        ScopedValue.where(FLOW_KEY, flowKey).run(runnable);
+    }
+
+    public static <T> T callWithFlowKey(String flowKey, Supplier<T> supplier) {
+        return ScopedValue.where(FLOW_KEY, flowKey).call(supplier::get);
+    }
+
+    public Runnable withFlowKey(String flowKey, Runnable runnable) {
+        return () -> runWithFlowKey(flowKey, runnable);
+    }
+
+    public static String getFlowKeyOverride() {
         return THREAD_FLOW_CONTEXT_MAPPING.get();
     }
 
+    public static void restoreFlowKeyOverride(String flowKeyOverride) {
+        if (flowKeyOverride == null) {
+            THREAD_FLOW_CONTEXT_MAPPING.remove();
+        } else {
+            THREAD_FLOW_CONTEXT_MAPPING.set(flowKeyOverride);
+        }
+    }
+
     public String setFlowKey(String flowKey) {
         THREAD_FLOW_CONTEXT_MAPPING.set(flowKey);
 
@@ -63,7 +98,57 @@ public class ContextService {
 
     public ConcurrentLinkedHashMap<String, Object> getProjectContext() {
         var flowKey = getFlowKey();
-        return CONTEXT.get(flowKey);
+        var projectContext = CONTEXT.get(flowKey);
+
+        var overlay = CONTEXT_OVERLAY.isBound() ? CONTEXT_OVERLAY.get() : null;
+        if (overlay != null && projectContext != null && overlay.getParent() == projectContext) {
+            return overlay;
+        }
+
+        return projectContext;
+    }
+
+    public ConcurrentLinkedHashMap<String, Object> getSharedProjectContext() {
+        return CONTEXT.get(getFlowKey());
+    }
+
+    /**
+     * Nested map of the project context to write into. Isolated tasks get an overlay of the shared one, see
+     * {@link OverlayContextMap#getNestedForUpdate(Object)}, which is published when its key is one of the publish keys.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getNestedForUpdate(String key) {
+        var projectContext = getProjectContext();
+        if (projectContext instanceof OverlayContextMap<String, Object> overlay) {
+            return overlay.getNestedForUpdate(key);
+        }
+
+        return (Map<String, Object>) projectContext.computeIfAbsent(key, _ -> new ConcurrentLinkedHashMap<>());
+    }
+
+    private OverlayContextMap<String, Object> createOverlay(String flowKey) {
+        var sharedProjectContext = CONTEXT.get(flowKey);
+        if (sharedProjectContext == null) {
+            throw new IllegalStateException("None project context was found for the flowKey '" + flowKey + "'!");
+        }
+
+        return new OverlayContextMap<>(sharedProjectContext);
+    }
+
+    public void publishOverlay(Collection<?> keys) {
+        var overlay = CONTEXT_OVERLAY.isBound() ? CONTEXT_OVERLAY.get() : null;
+        if (overlay != null && keys != null && !keys.isEmpty()) {
+            overlay.publish(keys);
+        }
+    }
+
+    public Runnable isolated(String flowKey, Collection<?> publishKeys, Runnable runnable) {
+        return () -> ScopedValue.where(FLOW_KEY, flowKey)
+                .where(CONTEXT_OVERLAY, createOverlay(flowKey))
+                .run(() -> {
+                    runnable.run();
+                    this.publishOverlay(publishKeys);
+                });
     }
 
     public Flow getFlow(String flowKey) {
@@ -0,0 +1,250 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.dto.AgentDto;
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
+import com.capco.brsp.synthesisengine.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules LLM calls per provider/model lane. Every lane has token buckets for requests and tokens per minute and an
+ * adaptive (AIMD) concurrency limit: it grows by one slot per window of successful calls and halves on throttling.
+ * Without a configured initial concurrency a lane is unlimited until its first throttling, the limit then starts from
+ * half of the calls in flight. The requestsPerMinute/tokensPerMinute metadata of the agent is applied on every call,
+ * agents sharing a model share its lane with the limits of the latest call.
+ */
+@Slf4j
+@Service(value = "llmRateLimiterService")
+public class LLMRateLimiterService {
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    @Value("${llm.rate-limit.requests-per-minute:0}")
+    private long requestsPerMinute = 0;
+    @Value("${llm.rate-limit.tokens-per-minute:0}")
+    private long tokensPerMinute = 0;
+    @Value("${llm.rate-limit.initial-concurrency:0}")
+    private int initialConcurrency = 0;
+    @Value("${llm.rate-limit.min-concurrency:1}")
+    private int minConcurrency = 1;
+    @Value("${llm.rate-limit.max-concurrency:0}")
+    private int maxConcurrency = 0;
+    @Value("${llm.retry.base-delay-millis:2000}")
+    private long baseBackoffMillis = 2000;
+    @Value("${llm.retry.max-delay-millis:60000}")
+    private long maxBackoffMillis = 60000;
+
+    public Permit acquire(AgentDto config, long estimatedTokens) throws InterruptedException {
+        var laneKey = String.valueOf(config.getProvider()).toLowerCase() + "/" + config.getModel();
+        var lane = lanes.computeIfAbsent(laneKey, _ -> new Lane());
+        lane.acquire(estimatedTokens,
+                Utils.castOrDefault(metadataValue(config, "requestsPerMinute"), Long.class, requestsPerMinute),
+                Utils.castOrDefault(metadataValue(config, "tokensPerMinute"), Long.class, tokensPerMinute));
+
+        return new Permit(lane);
+    }
+
+    /**
+     * Full-jitter exponential backoff, throttled calls start from a doubled base delay.
+     */
+    public long backoffMillis(int attempt, Throwable cause) {
+        var base = isThrottle(cause) ? baseBackoffMillis * 2 : baseBackoffMillis;
+        var ceiling = Math.min(maxBackoffMillis, base * (1L << Math.min(Math.max(attempt, 0), 20)));
+
+        return ThreadLocalRandom.current().nextLong(base / 2, Math.max(base / 2 + 1, ceiling + 1));
+    }
+
+    public static boolean isThrottle(Throwable throwable) {
+        var cause = throwable;
+        while (cause != null) {
+            var className = cause.getClass().getSimpleName().toLowerCase();
+            var message = String.valueOf(cause.getMessage()).toLowerCase();
+            if (className.contains("throttl") || className.contains("ratelimit")
+                    || message.contains("429") || message.contains("too many requests")
+                    || message.contains("throttl") || message.contains("rate limit")) {
+                return true;
+            }
+
+            cause = cause.getCause();
+        }
+
+        return false;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+        lanes.forEach((key, lane) -> stats.put(key, lane.getStats()));
+
+        return stats;
+    }
+
+    private static Object metadataValue(AgentDto config, String key) {
+        return config.getMetadata() == null ? null : config.getMetadata().get(key);
+    }
+
+    public static class Permit implements AutoCloseable {
+        private final Lane lane;
+        private boolean throttled;
+        private boolean succeeded;
+        private long responseTokens;
+
+        private Permit(Lane lane) {
+            this.lane = lane;
+        }
+
+        public void success(long responseTokens) {
+            this.succeeded = true;
+            this.responseTokens = responseTokens;
+        }
+
+        public void failure(Throwable cause) {
+            this.throttled = isThrottle(cause);
+        }
+
+        @Override
+        public void close() {
+            lane.release(succeeded, throttled, responseTokens);
+        }
+    }
+
+    private class Lane {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Condition changed = lock.newCondition();
+        private final TokenBucket requestBucket = new TokenBucket();
+        private final TokenBucket tokenBucket = new TokenBucket();
+        private double limit = initialConcurrency > 0 ? Math.max(minConcurrency, initialConcurrency) : Double.POSITIVE_INFINITY;
+        private int inFlight;
+        private int waiting;
+        private long acquired;
+        private long throttles;
+        private long totalWaitMillis;
+        private long maxWaitMillis;
+
+        void acquire(long tokens, long requestsPerMinute, long tokensPerMinute) throws InterruptedException {
+            long start = System.nanoTime();
+
+            lock.lockInterruptibly();
+            try {
+                requestBucket.setCapacity(requestsPerMinute);
+                tokenBucket.setCapacity(tokensPerMinute);
+                waiting++;
+                try {
+                    while (true) {
+                        if (inFlight < (int) limit) {
+                            long waitMillis = Math.max(requestBucket.waitMillis(1), tokenBucket.waitMillis(tokens));
+                            if (waitMillis <= 0) {
+                                requestBucket.take(1);
+                                tokenBucket.take(tokens);
+                                break;
+                            }
+                            changed.await(waitMillis, TimeUnit.MILLISECONDS);
+                        } else {
+                            changed.await();
+                        }
+                    }
+                } finally {
+                    waiting--;
+                }
+
+                inFlight++;
+                acquired++;
+                long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                totalWaitMillis += waitedMillis;
+                maxWaitMillis = Math.max(maxWaitMillis, waitedMillis);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(boolean succeeded, boolean throttled, long responseTokens) {
+            lock.lock();
+            try {
+                inFlight--;
+                tokenBucket.take(responseTokens);
+                if (throttled) {
+                    throttles++;
+                    limit = Math.max(minConcurrency, Math.min(limit, inFlight + 1) / 2);
+                    log.warn("LLM throttling detected, concurrency limit reduced to {}", (int) limit);
+                } else if (succeeded) {
+                    limit = maxConcurrency > 0 ? Math.min(maxConcurrency, limit + 1 / limit) : limit + 1 / limit;
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Map<String, Object> getStats() {
+            lock.lock();
+            try {
+                Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+                stats.put("concurrencyLimit", Double.isInfinite(limit) ? "unlimited" : (int) limit);
+                stats.put("inFlight", inFlight);
+                stats.put("queueDepth", waiting);
+                stats.put("acquired", acquired);
+                stats.put("throttles", throttles);
+                stats.put("avgWaitMillis", acquired == 0 ? 0 : totalWaitMillis / acquired);
+                stats.put("maxWaitMillis", maxWaitMillis);
+                stats.put("requestsPerMinute", requestBucket.capacity);
+                stats.put("tokensPerMinute", tokenBucket.capacity);
+
+                return stats;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Not thread-safe on its own, always used under the lane lock
+    private static class TokenBucket {
+        private long capacity;
+        private double available;
+        private long lastRefillNanos = System.nanoTime();
+
+        void setCapacity(long capacityPerMinute) {
+            if (capacityPerMinute == capacity) {
+                return;
+            }
+
+            refill();
+            // A new bucket starts full, a resized one keeps what was already used
+            available = capacity <= 0 ? capacityPerMinute : Math.min(capacityPerMinute, available + capacityPerMinute - capacity);
+            capacity = capacityPerMinute;
+        }
+
+        long waitMillis(long amount) {
+            if (capacity <= 0) {
+                return 0;
+            }
+
+            refill();
+            // Requests bigger than the whole bucket only wait for a full bucket, they go into debt afterward
+            var needed = Math.min(amount, capacity);
+            if (available >= needed) {
+                return 0;
+            }
+
+            return (long) Math.ceil((needed - available) * 60000.0 / capacity);
+        }
+
+        void take(long amount) {
+            if (capacity > 0) {
+                refill();
+                available -= amount;
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - lastRefillNanos) * capacity / 60_000_000_000.0);
+            lastRefillNanos = now;
+        }
+    }
+}
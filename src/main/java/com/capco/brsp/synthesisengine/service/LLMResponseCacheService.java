@@ -0,0 +1,155 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.dto.AgentDto;
+import com.capco.brsp.synthesisengine.utils.*;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Opt-in cache of LLM responses, with a memory LRU tier in front of a disk tier shared by every flow.
+ * Agents enable it with {@code cache: on} (deterministic calls only: an explicit temperature 0 and no requested tools) or
+ * {@code cache: force}, the recipe can set the same values for every agent through {@code config.llmCache}.
+ */
+@Slf4j
+@Service(value = "llmResponseCacheService")
+public class LLMResponseCacheService {
+    public static final String MODE_OFF = "off";
+    public static final String MODE_ON = "on";
+    public static final String MODE_FORCE = "force";
+
+    private final Map<String, Map<String, AtomicLong>> agentStats = new ConcurrentHashMap<>();
+
+    @Value("${llm.response-cache.memory-entries:1000}")
+    private int memoryEntries = 1000;
+    @Value("${llm.response-cache.disk-enabled:true}")
+    private boolean diskEnabled = true;
+    @Value("${llm.response-cache.ttl-hours:720}")
+    private long ttlHours = 720;
+    @Value("${llm.response-cache.max-size-mb:512}")
+    private long maxSizeMb = 512;
+
+    private LruCache<String, String> memoryCache;
+    private DiskCache diskCache;
+
+    @PostConstruct
+    private void postConstruct() {
+        memoryCache = new LruCache<>(memoryEntries);
+        diskCache = new DiskCache(FileUtils.absolutePathJoin(FileUtils.USER_TEMP_PROJECTS_FOLDER_PATH, ".llm-cache"), ttlHours, maxSizeMb);
+        if (diskEnabled) {
+            diskCache.open();
+        }
+    }
+
+    /**
+     * Returns the cache key for this call, or null when the call should go to the provider.
+     */
+    public String resolveKey(AgentDto config, String prompt, Supplier<String> historyFingerprint, boolean hasTools, Object recipeMode) {
+        var mode = String.valueOf(Utils.nvl(config.getCache(), recipeMode, MODE_OFF)).trim().toLowerCase();
+        if (mode.equals("true")) {
+            mode = MODE_ON;
+        }
+
+        if (!mode.equals(MODE_ON) && !mode.equals(MODE_FORCE)) {
+            return null;
+        }
+
+        // No temperature means the provider default, which samples
+        var isDeterministic = config.getTemperature() != null && config.getTemperature() == 0 && !hasTools;
+        if (!isDeterministic && !mode.equals(MODE_FORCE)) {
+            counter(config, "bypassed").incrementAndGet();
+            return null;
+        }
+
+        return Utils.hashString(
+                String.valueOf(config.getProvider()).toLowerCase(),
+                String.valueOf(config.getModel()),
+                String.valueOf(config.getDeploymentName()),
+                String.valueOf(config.getTemperature()),
+                String.valueOf(config.getTopP()),
+                String.valueOf(config.getTopK()),
+                String.valueOf(config.getMaxTokens()),
+                String.valueOf(config.getFrequencyPenalty()),
+                String.valueOf(config.getPresencePenalty()),
+                String.valueOf(config.getStopSequences()),
+                String.valueOf(config.getResponseFormat()),
+                String.valueOf(config.getTools()),
+                String.valueOf(config.getSystemInstructions()),
+                String.valueOf(historyFingerprint.get()),
+                normalizePrompt(prompt)
+        );
+    }
+
+    public String get(String key, AgentDto config) {
+        var response = memoryCache.get(key);
+        if (response == null) {
+            response = diskCache.get(key);
+            if (response != null) {
+                memoryCache.put(key, response);
+            }
+        }
+
+        counter(config, response == null ? "misses" : "hits").incrementAndGet();
+
+        return response;
+    }
+
+    public void put(String key, String response) {
+        if (key == null || response == null) {
+            return;
+        }
+
+        memoryCache.put(key, response);
+        diskCache.put(key, response);
+    }
+
+    public void addSavedTokens(AgentDto config, long tokens) {
+        counter(config, "savedTokens").addAndGet(tokens);
+    }
+
+    public int purge() {
+        memoryCache.clear();
+        return diskCache.purge();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+        stats.put("memory", memoryCache.getStats());
+        stats.put("disk", diskCache.getStats());
+
+        Map<String, Object> agents = new ConcurrentLinkedHashMap<>();
+        agentStats.forEach((agent, counters) -> {
+            Map<String, Object> agentMap = new ConcurrentLinkedHashMap<>();
+            counters.forEach((name, value) -> agentMap.put(name, value.get()));
+            long hits = counters.getOrDefault("hits", new AtomicLong()).get();
+            long lookups = hits + counters.getOrDefault("misses", new AtomicLong()).get();
+            agentMap.put("hitRate", lookups == 0 ? 0.0 : (double) hits / lookups);
+            agents.put(agent, agentMap);
+        });
+        stats.put("agents", agents);
+
+        return stats;
+    }
+
+    private AtomicLong counter(AgentDto config, String name) {
+        var agent = Objects.requireNonNullElseGet(config.getName(), () -> config.getProvider() + "/" + config.getModel());
+        return agentStats.computeIfAbsent(agent, it -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, it -> new AtomicLong());
+    }
+
+    private static String normalizePrompt(String prompt) {
+        if (prompt == null) {
+            return "";
+        }
+
+        return prompt.lines().map(String::stripTrailing).collect(Collectors.joining("\n")).strip();
+    }
+}
@@ -30,6 +30,8 @@ import org.checkerframework.checker.units.qual.A;
 import org.springframework.ai.azure.openai.AzureOpenAiChatOptions;
 import org.springframework.ai.bedrock.converse.BedrockChatOptions;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.content.Media;
 import org.springframework.ai.mcp.SyncMcpToolCallbackProvider;
 import org.springframework.ai.openai.OpenAiChatOptions;
@@ -57,9 +59,7 @@ import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.core.exception.SdkClientException;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
@@ -79,6 +79,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -92,6 +99,8 @@ public class LLMSpringService implements ILLMSpringService {
     public static final String CONSTANT_LLM_THREAD_KEY = "LLMThreadKey";
     private static final String RECIPE_AGENTS_REGISTERED_KEY = "__recipe_agents_registered__";
     private static final String RECIPE_AGENT_OVERRIDES_KEY = "__recipe_agent_overrides__";
+    // Chunk summaries only wait on the LLM, a virtual thread each is cheaper than holding common pool threads
+    private static final ExecutorService CHUNK_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
     /**
      * Scheduled task to clean up expired chat clients and limit the number of conversations.
      * Runs at the configured interval.
@@ -148,9 +157,13 @@ public class LLMSpringService implements ILLMSpringService {
     private final ContextService contextService;
     private final Map<String, ChatModel> chatModels;
     private final SpringToolsCalling springToolsCalling;
+    private final LLMResponseCacheService llmResponseCacheService;
+    private final BedrockClientPoolService bedrockClientPoolService;
+    private final LLMRateLimiterService llmRateLimiterService;
     private final Map<String, ChatClient> chatClientCache = new ConcurrentLinkedHashMap<>();
     private final Map<String, ConversationMemoryDto> conversationMemories = new ConcurrentLinkedHashMap<>();
     private final Map<String, Long> chatClientLastAccessTime = new ConcurrentLinkedHashMap<>();
+    private final Map<String, Map<String, AtomicLong>> streamingStats = new ConcurrentHashMap<>();
 
     @Qualifier(value = "agentRegistryService")
     private final AgentRegistryService agentRegistryService;
@@ -283,21 +296,135 @@ public class LLMSpringService implements ILLMSpringService {
     
     @Override
     public String prompt(String prompt, AgentDto config, String conversationId) {
+        return prompt(prompt, config, conversationId, null);
+    }
+
+    /**
+     * Same as {@link #prompt(String, AgentDto, String)}, but when streaming is enabled for the agent ({@code stream: true})
+     * or the recipe ({@code config.llmStream}) the listener receives the partial output and can stop the generation early.
+     */
+    public String prompt(String prompt, AgentDto config, String conversationId, LLMStreamListener listener) {
+        var isBedrockSdk = config.getProvider().toLowerCase().equals("bedrock");
+        var cacheKey = llmResponseCacheService.resolveKey(config, prompt, () -> isBedrockSdk ? null : getConversationFingerprint(conversationId), hasRequestedTools(config), getRecipeLlmCacheMode());
+        if (cacheKey != null) {
+            var cachedResponse = llmResponseCacheService.get(cacheKey, config);
+            if (cachedResponse != null) {
+                log.info("Restored LLM response from cache. Provider: {}, model: {}, conversationId: {}", config.getProvider(), config.getModel(), conversationId);
+                if (!isBedrockSdk) {
+                    recordCachedExchange(prompt, cachedResponse, config, conversationId);
+                }
+                llmResponseCacheService.addSavedTokens(config, estimateTokenCount(prompt) + estimateTokenCount(cachedResponse));
+
+                return cachedResponse;
+            }
+        }
+
+        if (!isBedrockSdk && isStreamingEnabled(config)) {
+            var streamed = rateLimited(config, prompt, () -> promptStreaming(prompt, config, conversationId, listener));
+            // A truncated response must not be served to calls that expect the full one
+            if (!streamed.earlyStopped()) {
+                llmResponseCacheService.put(cacheKey, streamed.text());
+            }
+
+            return streamed.text();
+        }
+
+        var responseText = rateLimited(config, prompt, () -> promptProvider(prompt, config, conversationId));
+        llmResponseCacheService.put(cacheKey, responseText);
+
+        return responseText;
+    }
+
+    private <T> T rateLimited(AgentDto config, String prompt, Supplier<T> call) {
+        LLMRateLimiterService.Permit permit;
+        try {
+            permit = llmRateLimiterService.acquire(config, estimateTokenCount(prompt));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LLMCommunicationException("Interrupted while waiting for an LLM rate limit slot", config.getProvider(), ex);
+        }
+
+        try (permit) {
+            T result = call.get();
+            long responseTokens = 0;
+            if (result instanceof String text) {
+                responseTokens = estimateTokenCount(text);
+            } else if (result instanceof StreamedResponse streamed) {
+                responseTokens = estimateTokenCount(streamed.text());
+            }
+            permit.success(responseTokens);
+
+            return result;
+        } catch (RuntimeException ex) {
+            permit.failure(ex);
+            throw ex;
+        }
+    }
+
+    // A cache hit must leave the conversation memory as if the provider had been called
+    private void recordCachedExchange(String prompt, String response, AgentDto config, String conversationId) {
+        if (conversationId == null) {
+            return;
+        }
+
+        ConversationMemoryDto memory = getOrCreateConversationMemory(conversationId);
+        if (config.getModel() != null) {
+            memory.getMetadata().put("model", config.getModel());
+            memory.getMetadata().put("provider", config.getProvider());
+        }
+
+        addMessageMemory(conversationId, "user", prompt);
+        getChatMemory().add(conversationId, new UserMessage(prompt));
+        getChatMemory().add(conversationId, new AssistantMessage(response));
+        addMessageMemory(conversationId, "assistant", response);
+
+        manageMemorySize(conversationId, config);
+    }
+
+    private String getConversationFingerprint(String conversationId) {
+        if (conversationId == null) {
+            return null;
+        }
+
+        var messages = getChatMemory().get(conversationId);
+        if (messages == null || messages.isEmpty()) {
+            return null;
+        }
+
+        return Utils.hashString(messages.stream().map(it -> it.getMessageType() + ":" + it.getText()).toArray(String[]::new));
+    }
+
+    private boolean hasRequestedTools(AgentDto config) {
+        return (config.getTools() != null && !config.getTools().isEmpty())
+                || (config.getMetadata() != null && config.getMetadata().get("mcpTools") instanceof List<?> mcpTools && !mcpTools.isEmpty());
+    }
+
+    private boolean isStreamingEnabled(AgentDto config) {
+        if (config.getStream() != null) {
+            return config.getStream();
+        }
+
+        var projectContext = contextService.getProjectContext();
+        var recipeStream = projectContext == null ? null : Utils.anyCollectionGet(projectContext, "recipe.config.llmStream");
+
+        return Boolean.parseBoolean(String.valueOf(recipeStream));
+    }
+
+    private Object getRecipeLlmCacheMode() {
+        var projectContext = contextService.getProjectContext();
+        return projectContext == null ? null : Utils.anyCollectionGet(projectContext, "recipe.config.llmCache");
+    }
+
+    private String promptProvider(String prompt, AgentDto config, String conversationId) {
         if (config.getProvider().toLowerCase().equals("bedrock")) {
-            AwsBasicCredentials awsBasicCredentials = AwsBasicCredentials.create(
-                    environment.getProperty("AWS_BEDROCK_ACCESS_KEY"),
-                    environment.getProperty("AWS_BEDROCK_SECRET_KEY")
-            );
             Long timeoutMinutes = environment.getProperty("spring.ai.bedrock.aws.timeout", Long.class, 15L);
             Duration timeout = Duration.ofMinutes(timeoutMinutes);
-            BedrockRuntimeClient client = BedrockRuntimeClient.builder()
-                    .region(Region.US_EAST_1)
-                    .credentialsProvider(() -> awsBasicCredentials)
-                    .httpClient(ApacheHttpClient.builder()
-                            .socketTimeout(timeout)
-                            .build())
-                    .overrideConfiguration(c -> c.apiCallTimeout(Duration.parse(timeout.toString())))
-                    .build();
+            BedrockRuntimeClient client = bedrockClientPoolService.getClient(
+                    Region.of(environment.getProperty("spring.ai.bedrock.aws.region", Region.US_EAST_1.id())),
+                    environment.getProperty("AWS_BEDROCK_ACCESS_KEY"),
+                    environment.getProperty("AWS_BEDROCK_SECRET_KEY"),
+                    timeout
+            );
 
             String model = config.getModel();
 
@@ -307,13 +434,13 @@ public class LLMSpringService implements ILLMSpringService {
                     .build();
 
             try {
-                ConverseResponse response = client.converse(request -> request
+                ConverseResponse response = bedrockClientPoolService.call(client, it -> it.converse(request -> request
                         .modelId(model)
                         .messages(message)
                         .inferenceConfig(cfg -> cfg
                                 .maxTokens(config.getMaxTokens())
                                 .temperature(config.getTemperature().floatValue())
-                                .topP(config.getTopP().floatValue())));
+                                .topP(config.getTopP().floatValue()))));
 
                 var responseText = response.output().message().content().getFirst().text();
                 return responseText;
@@ -322,16 +449,7 @@ public class LLMSpringService implements ILLMSpringService {
                 throw new LLMCommunicationException("Cannot invoke Bedrock runtime client", config.getProvider());
             }
         }
-        if (conversationId != null) {
-            ConversationMemoryDto memory = getOrCreateConversationMemory(conversationId);
-
-            if (config.getModel() != null) {
-                memory.getMetadata().put("model", config.getModel());
-                memory.getMetadata().put("provider", config.getProvider());
-            }
-
-            addMessageMemory(conversationId, "user", prompt);
-        }
+        registerUserPrompt(prompt, config, conversationId);
 
         log.info("Executing prompt with provider: {}, model: {}, temperature: {}, conversationId: {}. Prompt size = {}",
                 config.getProvider(), config.getModel(), config.getTemperature(), conversationId, prompt.length());
@@ -352,6 +470,98 @@ public class LLMSpringService implements ILLMSpringService {
         return responseText;
     }
 
+    private StreamedResponse promptStreaming(String prompt, AgentDto config, String conversationId, LLMStreamListener listener) {
+        registerUserPrompt(prompt, config, conversationId);
+
+        log.info("Streaming prompt with provider: {}, model: {}, temperature: {}, conversationId: {}. Prompt size = {}",
+                config.getProvider(), config.getModel(), config.getTemperature(), conversationId, prompt.length());
+        log.debug("Prompt: {}", prompt);
+
+        ChatClient chatClient = getOrCreateChatClient(config);
+
+        var accumulated = new StringBuilder();
+        var earlyStopped = new AtomicBoolean();
+        var firstChunkNanos = new AtomicLong();
+        long startNanos = System.nanoTime();
+
+        buildChatRequest(chatClient, prompt, config, conversationId)
+                .stream()
+                .content()
+                .doOnNext(chunk -> {
+                    firstChunkNanos.compareAndSet(0, System.nanoTime());
+                    accumulated.append(chunk);
+                })
+                .takeUntil(chunk -> listener != null && listener.onPartial(accumulated) && earlyStopped.compareAndSet(false, true))
+                .blockLast();
+
+        if (accumulated.isEmpty()) {
+            throw new LLMCommunicationException("LLM response is null or empty", config.getProvider());
+        }
+
+        String responseText = accumulated.toString();
+        recordStreamingStats(config, startNanos, firstChunkNanos.get(), estimateTokenCount(responseText), earlyStopped.get());
+
+        addMessageMemory(conversationId, "assistant", responseText);
+
+        manageMemorySize(conversationId, config);
+
+        return new StreamedResponse(responseText, earlyStopped.get());
+    }
+
+    private void registerUserPrompt(String prompt, AgentDto config, String conversationId) {
+        if (conversationId == null) {
+            return;
+        }
+
+        ConversationMemoryDto memory = getOrCreateConversationMemory(conversationId);
+
+        if (config.getModel() != null) {
+            memory.getMetadata().put("model", config.getModel());
+            memory.getMetadata().put("provider", config.getProvider());
+        }
+
+        addMessageMemory(conversationId, "user", prompt);
+    }
+
+    private void recordStreamingStats(AgentDto config, long startNanos, long firstChunkNanos, long tokens, boolean earlyStopped) {
+        long endNanos = System.nanoTime();
+        long ttftMillis = TimeUnit.NANOSECONDS.toMillis(firstChunkNanos - startNanos);
+        long generationMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNanos - firstChunkNanos));
+
+        log.info("Streamed LLM response. Provider: {}, model: {}, time to first token: {} ms, ~{} tokens/s{}",
+                config.getProvider(), config.getModel(), ttftMillis, tokens * 1000 / generationMillis, earlyStopped ? ", stopped early" : "");
+
+        var agent = Objects.requireNonNullElseGet(config.getName(), () -> config.getProvider() + "/" + config.getModel());
+        var counters = streamingStats.computeIfAbsent(agent, it -> new ConcurrentHashMap<>());
+        counters.computeIfAbsent("calls", it -> new AtomicLong()).incrementAndGet();
+        counters.computeIfAbsent("earlyStops", it -> new AtomicLong()).addAndGet(earlyStopped ? 1 : 0);
+        counters.computeIfAbsent("ttftMillis", it -> new AtomicLong()).addAndGet(ttftMillis);
+        counters.computeIfAbsent("generationMillis", it -> new AtomicLong()).addAndGet(generationMillis);
+        counters.computeIfAbsent("tokens", it -> new AtomicLong()).addAndGet(tokens);
+    }
+
+    public Map<String, Object> getStreamingStats() {
+        Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+        streamingStats.forEach((agent, counters) -> {
+            long calls = counters.getOrDefault("calls", new AtomicLong()).get();
+            long generationMillis = counters.getOrDefault("generationMillis", new AtomicLong()).get();
+            long tokens = counters.getOrDefault("tokens", new AtomicLong()).get();
+
+            Map<String, Object> agentMap = new ConcurrentLinkedHashMap<>();
+            agentMap.put("calls", calls);
+            agentMap.put("earlyStops", counters.getOrDefault("earlyStops", new AtomicLong()).get());
+            agentMap.put("avgTimeToFirstTokenMillis", calls == 0 ? 0 : counters.getOrDefault("ttftMillis", new AtomicLong()).get() / calls);
+            agentMap.put("avgTokensPerSecond", generationMillis == 0 ? 0.0 : tokens * 1000.0 / generationMillis);
+            agentMap.put("tokens", tokens);
+            stats.put(agent, agentMap);
+        });
+
+        return stats;
+    }
+
+    private record StreamedResponse(String text, boolean earlyStopped) {
+    }
+
     public String promptWithFile(String prompt, List<MultipartFile> files, AgentDto config) throws IOException {
         if (currentConversationId == null) {
             log.info("No active conversation. Creating a temporary one for this prompt with file.");
@@ -398,9 +608,9 @@ public class LLMSpringService implements ILLMSpringService {
             promptBuilder.options(getChatOptionsForProvider(config));
         }
 
-        ChatResponse response = promptBuilder
+        ChatResponse response = rateLimited(config, textContentBuilder.toString(), () -> promptBuilder
                 .call()
-                .chatResponse();
+                .chatResponse());
 
         String responseText = Optional.of(response)
                 .map(ChatResponse::getResult)
@@ -983,8 +1193,9 @@ public class LLMSpringService implements ILLMSpringService {
         List<String> chunks = splitTextIntoChunks(content, chunkSize);
         log.info("Split text into {} chunks. Summarizing each chunk in parallel...", chunks.size());
 
+        var flowKey = contextService.getFlowKey();
         List<CompletableFuture<String>> futures = IntStream.range(0, chunks.size())
-                .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> ContextService.callWithFlowKey(flowKey, () -> {
                     log.info("Summarizing chunk {}/{}", i + 1, chunks.size());
                     String chunk = chunks.get(i);
                     String summarizationPrompt = "Make a summary of the following text chunk, keeping the most important information:\n\n---\n" + chunk;
@@ -997,7 +1208,7 @@ public class LLMSpringService implements ILLMSpringService {
                                 i + 1, chunks.size(), largeTextFile.getOriginalFilename(), e);
                         return "Error summarizing chunk " + (i + 1) + ": " + e.getMessage();
                     }
-                }))
+                }), CHUNK_EXECUTOR))
                 .toList();
 
         String result = futures.stream()
@@ -1194,6 +1405,10 @@ public class LLMSpringService implements ILLMSpringService {
     }
 
     private ChatResponse executeChatPrompt(ChatClient chatClient, String prompt, AgentDto config, String conversationId) {
+        return buildChatRequest(chatClient, prompt, config, conversationId).call().chatResponse();
+    }
+
+    private ChatClient.ChatClientRequestSpec buildChatRequest(ChatClient chatClient, String prompt, AgentDto config, String conversationId) {
         var promptBuilder = chatClient.prompt()
                 .user(u -> u.text(prompt));
 
@@ -1208,7 +1423,7 @@ public class LLMSpringService implements ILLMSpringService {
         } else {
             promptBuilder.options(getChatOptionsForProvider(config));
         }
-        return promptBuilder.call().chatResponse();
+        return promptBuilder;
     }
 
     private ToolCallback[] resolveToolCallbacks(AgentDto config) {
@@ -0,0 +1,11 @@
+package com.capco.brsp.synthesisengine.service;
+
+/**
+ * Receives the partial output of a streamed LLM call.
+ */
+public interface LLMStreamListener {
+    /**
+     * Called with everything received so far, returning true stops the generation early.
+     */
+    boolean onPartial(CharSequence accumulated);
+}
@@ -0,0 +1,109 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.flow.Task;
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Publishes the partial output of a streamed prompt as the task rotate messages and into a {@code .partial} file next
+ * to the file being generated. Optionally stops the generation once the first markdown code block is closed. It only
+ * takes over the task once the first partial output arrives, so prompts that aren't streamed are left untouched.
+ */
+@Slf4j
+class PromptProgressListener implements LLMStreamListener, AutoCloseable {
+    private static final long ROTATE_INTERVAL_MILLIS = 500;
+    private static final long FILE_INTERVAL_MILLIS = 1000;
+    private static final int TAIL_SIZE = 120;
+
+    private final Task task;
+    private final Path partialFile;
+    private final boolean stopAtClosingFence;
+    private List<String> originalRotateMessages;
+    private boolean started;
+    private long lastRotateUpdate;
+    private long lastFileUpdate;
+    private int scanFrom;
+    private int fences;
+
+    PromptProgressListener(Task task, Path partialFile, boolean stopAtClosingFence) {
+        this.task = task;
+        this.partialFile = partialFile;
+        this.stopAtClosingFence = stopAtClosingFence;
+    }
+
+    @Override
+    public boolean onPartial(CharSequence accumulated) {
+        if (!started) {
+            started = true;
+            originalRotateMessages = task == null ? null : task.getRotateMessages();
+        }
+
+        long now = System.currentTimeMillis();
+        if (task != null && now - lastRotateUpdate >= ROTATE_INTERVAL_MILLIS) {
+            lastRotateUpdate = now;
+            var tail = accumulated.subSequence(Math.max(0, accumulated.length() - TAIL_SIZE), accumulated.length()).toString().strip();
+            var rotateMessages = new ConcurrentLinkedList<String>();
+            rotateMessages.add("Generating... " + accumulated.length() + " chars received");
+            rotateMessages.add(tail);
+            task.setRotateMessages(rotateMessages);
+        }
+
+        if (partialFile != null && now - lastFileUpdate >= FILE_INTERVAL_MILLIS) {
+            lastFileUpdate = now;
+            try {
+                Files.createDirectories(partialFile.getParent());
+                Files.writeString(partialFile, accumulated, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                log.debug("Failed to write the partial output {}: {}", partialFile, ex.getMessage());
+            }
+        }
+
+        return stopAtClosingFence && countFences(accumulated) >= 2 && fences % 2 == 0;
+    }
+
+    // Only the new text is scanned, the last two chars are kept in case a fence was split between chunks
+    private int countFences(CharSequence accumulated) {
+        // A shorter output means the prompt is being retried from scratch
+        if (accumulated.length() < scanFrom) {
+            scanFrom = 0;
+            fences = 0;
+        }
+
+        var pending = accumulated.subSequence(scanFrom, accumulated.length()).toString();
+        int index = 0;
+        int lastMatchEnd = 0;
+        while ((index = pending.indexOf("```", index)) >= 0) {
+            fences++;
+            index += 3;
+            lastMatchEnd = index;
+        }
+        scanFrom = Math.max(scanFrom + lastMatchEnd, accumulated.length() - 2);
+
+        return fences;
+    }
+
+    @Override
+    public void close() {
+        if (!started) {
+            return;
+        }
+
+        if (task != null) {
+            task.setRotateMessages(originalRotateMessages);
+        }
+
+        if (partialFile != null) {
+            try {
+                Files.deleteIfExists(partialFile);
+            } catch (IOException ex) {
+                log.debug("Failed to delete the partial output {}: {}", partialFile, ex.getMessage());
+            }
+        }
+    }
+}
@@ -73,6 +73,9 @@ public class ScriptService implements IScriptService {
     @Qualifier("contextService")
     private ContextService contextService;
     @Autowired
+    @Qualifier("askService")
+    private AskService askService;
+    @Autowired
     private ToolsFunction toolsFunction;
 
     @Qualifier("beanResolver")
@@ -1248,34 +1251,14 @@ public class ScriptService implements IScriptService {
                             String key = String.valueOf(parsedTransformParams.removeFirst());
                             String question = String.valueOf(parsedTransformParams.removeFirst());
 
-                            List<Map<String, Object>> askQueue = (List<Map<String, Object>>) projectContext.computeIfAbsent("askQueue", k -> new ConcurrentLinkedList<Map<String, Object>>());
-                            Map<String, Object> ask = new ConcurrentLinkedHashMap<>();
-                            askQueue.add(ask);
-
-                            ask.put("key", key);
-                            ask.put("type", parsedTransformParams.size() <= 1 ? "INPUT" : "BUTTONS");
-                            ask.put("label", question);
-                            List<String> askValues = (List<String>) ask.computeIfAbsent("values", k -> new ConcurrentLinkedList<String>());
-
+                            List<String> askValues = new ArrayList<>();
                             if (parsedTransformParams.size() > 1) {
                                 while (!parsedTransformParams.isEmpty()) {
                                     askValues.add(evalIfSpEL(parsedTransformParams.removeFirst()));
                                 }
                             }
 
-                            projectContext.put("askQueue", askQueue);
-
-                            log.warn("Waiting 30s for a User response!");
-                            int askTimeoutCounter = 0;
-                            while (askTimeoutCounter++ < 30 && projectContext.get("askQueue") instanceof List<?> nextAskQueue && !nextAskQueue.isEmpty()) {
-                                Thread.sleep(1000);
-                            }
-
-                            if (askTimeoutCounter >= 30) {
-                                projectContext.put("askQueue", new ConcurrentLinkedHashMap<>());
-                                log.error("Ask Timeout!");
-                                throw new RuntimeException("Ask Timeout!");
-                            }
+                            askService.ask(contextService.getFlowKey(), projectContext, key, question, askValues);
                             break;
 
                         case "cache":
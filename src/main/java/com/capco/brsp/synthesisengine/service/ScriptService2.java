@@ -25,10 +25,14 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.expression.BeanResolver;
+import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
 import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
@@ -62,6 +66,7 @@ public class ScriptService2 implements IScriptService {
     private static final Map<String, ITransform> CUSTOM_TRANSFORMS = new ConcurrentLinkedHashMap<>();
     private static final String SPEL_EXPRESSION_DELIMITER = "^\\s*\\$\\{([\\s\\S]+)}\\s*$";
     private static final Pattern PATTERN_SPEL_EXPRESSION = Pattern.compile(SPEL_EXPRESSION_DELIMITER);
+    private static final Pattern PATTERN_SPEL_ITEMS = Pattern.compile("\\$\\{(.*?)}\\$");
     private final ApplicationContext applicationContext;
     @Autowired
     @Qualifier("llmSpringService")
@@ -79,6 +84,15 @@ public class ScriptService2 implements IScriptService {
     @Qualifier("contextService")
     private ContextService contextService;
     @Autowired
+    @Qualifier("transformCacheService")
+    private TransformCacheService transformCacheService;
+    @Autowired
+    @Qualifier("askService")
+    private AskService askService;
+    @Autowired
+    @Qualifier("llmRateLimiterService")
+    private LLMRateLimiterService llmRateLimiterService;
+    @Autowired
     private ToolsFunction toolsFunction;
     @Autowired
     @Qualifier("agensGraphService")
@@ -88,18 +102,31 @@ public class ScriptService2 implements IScriptService {
     private final BeanResolver beanResolver;
     private final Configuration freemakerConfig = new Configuration(Configuration.getVersion());
     private final StringTemplateLoader freemarkerTemplateLoader = new StringTemplateLoader();
-    private final ExpressionParser parser = new SpelExpressionParser();
+    private final LruCache<String, Template> freemarkerTemplateCache = new LruCache<>(2048);
+    @Value("${configs.cache.freemarkerTemplates:2048}")
+    private int freemarkerTemplateCacheSize = 2048;
+    private final LruCache<String, TransformPlan> transformPlanCache = new LruCache<>(4096);
+    @Value("${configs.cache.transformPlans:4096}")
+    private int transformPlanCacheSize = 4096;
+    private final ExpressionParser parser = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, ScriptService2.class.getClassLoader()));
+    private final LruCache<String, Expression> spelExpressionCache = new LruCache<>(8192);
+    @Value("${configs.cache.spelExpressions:8192}")
+    private int spelExpressionCacheSize = 8192;
     Map<String, IExecutor> executorsCache = new NullableConcurrentHashMap<>();
 
     private PythonWorker worker;
 
     public void removeCache(String flowKey, String cacheHash) {
+        transformCacheService.remove(cacheHash);
         TRANSFORM_CACHE.get(flowKey).remove(cacheHash);
     }
 
     @PostConstruct
     private void postConstruct() throws TemplateModelException {
         freemakerConfig.setTemplateLoader(freemarkerTemplateLoader);
+        freemarkerTemplateCache.setMaxSize(freemarkerTemplateCacheSize);
+        transformPlanCache.setMaxSize(transformPlanCacheSize);
+        spelExpressionCache.setMaxSize(spelExpressionCacheSize);
 
         // For production purposes
         freemakerConfig.setSharedVariable("SuperUtils", SuperUtils.getInstance());
@@ -111,8 +138,7 @@ public class ScriptService2 implements IScriptService {
     }
 
     public String evalSpELItems(String text) {
-        Pattern pattern = Pattern.compile("\\$\\{(.*?)}\\$");
-        Matcher matcher = pattern.matcher(text);
+        Matcher matcher = PATTERN_SPEL_ITEMS.matcher(text);
 
         StringBuilder result = new StringBuilder();
         while (matcher.find()) {
@@ -126,11 +152,10 @@ public class ScriptService2 implements IScriptService {
     }
 
     public StandardEvaluationContext getSpELContext(Map<String, Object> context) {
-        StandardEvaluationContext standardEvaluationContext = new StandardEvaluationContext();
-
         var projectContext = Utils.nvl(context, new ConcurrentLinkedHashMap<>());
+
+        StandardEvaluationContext standardEvaluationContext = new LazyVariableEvaluationContext((Map<String, Object>) projectContext);
         standardEvaluationContext.setVariable("projectContext", projectContext);
-        standardEvaluationContext.setVariables((Map<String, Object>) projectContext);
         standardEvaluationContext.setBeanResolver(beanResolver);
 
         return standardEvaluationContext;
@@ -156,7 +181,7 @@ public class ScriptService2 implements IScriptService {
         var standardEvaluationContext = getSpELContext(context);
 
         try {
-            return parser.parseExpression(expressionContent).getValue(standardEvaluationContext);
+            return getParsedExpression(expressionContent).getValue(standardEvaluationContext);
         } catch (SpelEvaluationException ex) {
             throw new SpelEvaluationExceptionDetails(expression, ex);
         } catch (Exception ex) {
@@ -164,13 +189,27 @@ public class ScriptService2 implements IScriptService {
         }
     }
 
+    private Expression getParsedExpression(String expressionContent) {
+        var expression = spelExpressionCache.get(expressionContent);
+        if (expression == null) {
+            expression = parser.parseExpression(expressionContent);
+            spelExpressionCache.put(expressionContent, expression);
+        }
+
+        return expression;
+    }
+
+    public Map<String, Object> getSpelExpressionCacheStats() {
+        return spelExpressionCache.getStats();
+    }
+
     public String getSpELContent(String expression) {
-        if (!isValidSpEL(expression)) {
+        var matcher = StringUtil.isNullOrEmpty(expression) ? null : PATTERN_SPEL_EXPRESSION.matcher(expression);
+        if (matcher == null || !matcher.matches()) {
             throw new IllegalStateException("Not a valid single expression! Expression: " + expression);
         }
 
-        var matcher = PATTERN_SPEL_EXPRESSION.matcher(expression);
-        return matcher.results().findFirst().map(it -> it.group(1)).orElse(null);
+        return matcher.group(1);
     }
 
     @Override
@@ -179,7 +218,7 @@ public class ScriptService2 implements IScriptService {
             return false;
         }
 
-        return expression.matches(SPEL_EXPRESSION_DELIMITER);
+        return PATTERN_SPEL_EXPRESSION.matcher(expression).matches();
     }
 
     public boolean isValidJsonPath(String expression) {
@@ -319,24 +358,37 @@ public class ScriptService2 implements IScriptService {
     }
 
     public String evalFreemarker(Map<String, Object> context, String content) throws IOException, TemplateException {
-        String templateName = UUID.randomUUID().toString();
-
         if (content == null) {
             return null;
         }
 
         try (StringWriter writer = new StringWriter()) {
-            freemarkerTemplateLoader.putTemplate(templateName, content);
-
-            Template template = freemakerConfig.getTemplate(templateName);
-            template.process(context, writer);
+            getCompiledTemplate(content).process(context, writer);
 
             return writer.toString();
-        } finally {
-            freemarkerTemplateLoader.removeTemplate(templateName);
         }
     }
 
+    private Template getCompiledTemplate(String content) throws IOException {
+        String contentHash = Utils.hashString(content);
+
+        Template template = freemarkerTemplateCache.get(contentHash);
+        if (template == null) {
+            template = new Template("inline-" + contentHash, content, freemakerConfig);
+            freemarkerTemplateCache.put(contentHash, template);
+        }
+
+        return template;
+    }
+
+    public Map<String, Object> getFreemarkerTemplateCacheStats() {
+        return freemarkerTemplateCache.getStats();
+    }
+
+    public Map<String, Object> getTransformPlanCacheStats() {
+        return transformPlanCache.getStats();
+    }
+
     public String evalFreemarker(String name, String content) throws IOException, TemplateException {
         Template template;
         try {
@@ -374,6 +426,35 @@ public class ScriptService2 implements IScriptService {
     }
 
     public Object splitContentAndPopulateTransforms(String content, List<TransformDto> history, Map<String, Object> projectContext, List<TransformDto> transforms) {
+        var plan = getTransformPlan(content, projectContext);
+        if (plan.isEmpty()) {
+            var transformDto = TransformDto.builder().sentence("<EMPTY>").name("Static Content").content(plan.getContent()).build();
+            history.add(transformDto);
+        }
+
+        transforms.addAll(plan.newTransforms());
+
+        return plan.getContent();
+    }
+
+    // Macros and default params come from the recipe, so plans are keyed by them as well as by content, an edited
+    // recipe or another flow with other macros compiles its own plans. The recipe containers keep their content hash
+    // until they are modified, so only the content is hashed on each call
+    private TransformPlan getTransformPlan(String content, Map<String, Object> projectContext) {
+        var macros = Utils.anyCollectionGet(projectContext, "recipe.macros");
+        var transformDefaultParams = Utils.anyCollectionGet(projectContext, "recipe.config.transformDefaultParams");
+        var planHash = Utils.hashString(content, ContextReadRecorder.hash(macros), ContextReadRecorder.hash(transformDefaultParams));
+
+        var plan = transformPlanCache.get(planHash);
+        if (plan == null) {
+            plan = compileTransformPlan(content, projectContext);
+            transformPlanCache.put(planHash, plan);
+        }
+
+        return plan;
+    }
+
+    private TransformPlan compileTransformPlan(String content, Map<String, Object> projectContext) {
         boolean foundFirstNonAtLine = false;
         List<String> transformLines = new ConcurrentLinkedList<>();
         List<String> remainingContent = new ConcurrentLinkedList<>();
@@ -405,11 +486,7 @@ public class ScriptService2 implements IScriptService {
             }
         }
 
-        String newContent = String.join("\n", remainingContent);
-        if (transformLines.isEmpty()) {
-            var transformDto = TransformDto.builder().sentence("<EMPTY>").name("Static Content").content(newContent).build();
-            history.add(transformDto);
-        }
+        List<TransformPlan.Step> steps = new ConcurrentLinkedList<>();
 
         for (var transformLine : transformLines) {
             var transformCleaned = Objects.requireNonNull(transformLine).trim().substring(3).trim();
@@ -428,11 +505,40 @@ public class ScriptService2 implements IScriptService {
                 dontUpdateContent = true;
             }
 
-            var transformDto = TransformDto.builder().sentence(transformLine).name(transformCommand).command(transformCommand.toLowerCase()).parameters(parsedTransformParams).update(!dontUpdateContent).originalTransformParams(transformParams).build();
-            transforms.add(transformDto);
+            steps.add(TransformPlan.Step.builder().sentence(transformLine).name(transformCommand).command(transformCommand.toLowerCase()).parameters(Collections.unmodifiableList(parsedTransformParams)).update(!dontUpdateContent).originalTransformParams(transformParams).build());
         }
 
-        return newContent;
+        return TransformPlan.builder().content(String.join("\n", remainingContent)).steps(Collections.unmodifiableList(steps)).build();
+    }
+
+    // The cache is persistent and shared by every flow, so it is keyed by what decides the result: the evaluated
+    // parameters, the agent and LLM thread of prompts and the input. Each part is length-prefixed so that parts can't
+    // run into each other
+    private String transformCacheHash(String transformCommand, List<?> evaluatedParameters, Object content, Map<String, Object> projectContext) {
+        var key = new StringBuilder();
+        appendCacheKeyPart(key, transformCommand);
+        for (var evaluatedParameter : evaluatedParameters) {
+            appendCacheKeyPart(key, evaluatedParameter);
+        }
+
+        if (transformCommand.equals("prompt") || transformCommand.equals("agent")) {
+            appendCacheKeyPart(key, projectContext.get("agent"));
+            appendCacheKeyPart(key, projectContext.get(CONSTANT_LLM_THREAD_KEY));
+        }
+
+        appendCacheKeyPart(key, content);
+
+        return Utils.hashString(key.toString());
+    }
+
+    private static void appendCacheKeyPart(StringBuilder key, Object part) {
+        if (part == null) {
+            key.append("-;");
+            return;
+        }
+
+        var partString = part instanceof String string ? string : JsonUtils.writeAsJsonStringCircular(part, false, false);
+        key.append(partString.length()).append(':').append(partString);
     }
 
     public Object autoEvalStringTransforms(String content) throws Exception {
@@ -475,6 +581,9 @@ public class ScriptService2 implements IScriptService {
         }
         var flowCache = TRANSFORM_CACHE.get(flowKey);
 
+        var historyMode = String.valueOf(Utils.nvl(Utils.anyCollectionGet(projectContext, "recipe.config.historyMode"), HistoryContent.MODE_FULL));
+        var historyMaxChars = Utils.castOrDefault(Utils.anyCollectionGet(projectContext, "recipe.config.historyMaxChars"), Integer.class, HistoryContent.DEFAULT_MAX_CHARS);
+
         LB_WHILE:
         while (transformIndex < transforms.size()) {
             checkpointRecovered = false;
@@ -487,23 +596,15 @@ public class ScriptService2 implements IScriptService {
 
             history.add(transform);
 
-            String serializedData = "<UNSERIALIZABLE DATA>";
-            if (newContent instanceof String newContentStr) {
-                serializedData = newContentStr;
-            } else {
-                try {
-                    serializedData = JsonUtils.writeAsJsonStringCircular(newContent, true, true);
-                } catch (Exception ex) {
-                    var jsonException = JsonUtils.throwableAsJson(ex);
-                    serializedData += "\n" + jsonException;
-                }
-            }
-            String historyContent = String.join("\n", Utils.safeSubList(transforms, transformIndex - 1).stream().map(TransformDto::getSentence).toList()) + "\n" + serializedData;
-            transform.setContent(historyContent);
+            var historySentences = Utils.safeSubList(transforms, transformIndex - 1).stream().map(TransformDto::getSentence).toList();
+            transform.setContent(HistoryContent.of(historyMode, historySentences, newContent, historyMaxChars));
 
             Object backupContent = newContent;
 
-            projectContext.entrySet().removeIf(it -> it.getKey().startsWith("_arg"));
+            // The arguments are always numbered from 0, so the previous ones are removed without walking the whole context
+            for (int i = 0; projectContext.containsKey("_arg" + i); i++) {
+                projectContext.remove("_arg" + i);
+            }
             for (int i = 0; i < transformParameters.size(); i++) {
                 projectContext.put("_arg" + i, transformParameters.get(i));
             }
@@ -514,11 +615,21 @@ public class ScriptService2 implements IScriptService {
                     && recipeMap.get("caches") instanceof Map<?, ?> cachesMap
                     && cachesMap.get("transforms") instanceof List<?> cachesTransformList
                     && cachesTransformList.contains(transformCommand.toLowerCase());
-            var transformCacheHash = Utils.hashString(transformParameters.stream().map(String::valueOf).collect(Collectors.joining()) + (newContent instanceof String newContentString ? newContentString : JsonUtils.writeAsJsonStringCircular(newContent, true, false)));
+            if (isCacheable) {
+                // Evaluated once for the key and handed to the step as they are, so that expressions with side effects
+                // don't run a second time
+                transformParameters = transformParameters.stream().map(this::evalIfSpEL).toList();
+            }
+            var transformCacheHash = isCacheable ? transformCacheHash(transformCommand, transformParameters, newContent, projectContext) : null;
 
-            if (isCacheable && flowCache.get(transformCacheHash) instanceof String cachedContent) {
+            Object cachedContent = isCacheable ? flowCache.get(transformCacheHash) : null;
+            if (isCacheable && !(cachedContent instanceof String)) {
+                cachedContent = transformCacheService.get(transformCacheHash);
+            }
+
+            if (cachedContent instanceof String cachedContentString) {
                 log.info("Restored by cache!");
-                newContent = cachedContent;
+                newContent = cachedContentString;
             } else {
                 try {
 //                var tool = toolsFunction.getToolDto(transformCommand, transformParameters, newContent);
@@ -635,32 +746,12 @@ public class ScriptService2 implements IScriptService {
                             String key = evalIfSpEL(transformParameters.getFirst());
                             String question = evalIfSpEL(Utils.getParam(transformParameters, 1, null));
 
-                            List<Map<String, Object>> askQueue = (List<Map<String, Object>>) projectContext.computeIfAbsent("askQueue", _ -> new ConcurrentLinkedList<Map<String, Object>>());
-                            Map<String, Object> ask = new ConcurrentLinkedHashMap<>();
-                            askQueue.add(ask);
-
-                            ask.put("key", key);
-                            ask.put("type", transformParameters.size() < 3 ? "INPUT" : "BUTTONS");
-                            ask.put("label", question);
-                            List<String> askValues = (List<String>) ask.computeIfAbsent("values", k -> new ConcurrentLinkedList<String>());
-
+                            List<String> askValues = new ArrayList<>();
                             for (int i = 2; i < transformParameters.size(); i++) {
                                 askValues.add(evalIfSpEL(Utils.getParam(transformParameters, i, null)));
                             }
 
-                            projectContext.put("askQueue", askQueue);
-
-                            log.warn("Waiting 30s for a User response!");
-                            int askTimeoutCounter = 0;
-                            while (askTimeoutCounter++ < 30 && projectContext.get("askQueue") instanceof List<?> nextAskQueue && !nextAskQueue.isEmpty()) {
-                                Thread.sleep(1000);
-                            }
-
-                            if (askTimeoutCounter >= 30) {
-                                projectContext.put("askQueue", new ConcurrentLinkedHashMap<>());
-                                log.error("Ask Timeout!");
-                                throw new RuntimeException("Ask Timeout!");
-                            }
+                            askService.ask(contextService.getFlowKey(), projectContext, key, question, askValues);
                             break;
 
                         case "repeat":
@@ -1042,7 +1133,9 @@ public class ScriptService2 implements IScriptService {
 
                         case "prompt":
                             //llmSpringService.ensureLlmThreadActive(projectContext, "prompt");
-                            newContent = handleAgent(projectContext, (String) newContent, null);
+                            try (var progressListener = createPromptProgressListener(flowKey, projectContext, transforms, transformIndex)) {
+                                newContent = handleAgent(projectContext, (String) newContent, null, progressListener);
+                            }
                             break;
 
                         case "agent":
@@ -1135,7 +1228,9 @@ public class ScriptService2 implements IScriptService {
                                     newContent = autoEval(agentBefore + "\n" + newContent);
                                 }
 
-                                newContent = handleAgent(projectContext, newContent, fileNames);
+                                try (var progressListener = createPromptProgressListener(flowKey, projectContext, transforms, transformIndex)) {
+                                    newContent = handleAgent(projectContext, newContent, fileNames, progressListener);
+                                }
 
                                 if (agentDto.getAfter() instanceof String agentAfter) {
                                     newContent = autoEval(agentAfter + "\n" + newContent);
@@ -1411,6 +1506,11 @@ public class ScriptService2 implements IScriptService {
         if (!tempCache.isEmpty()) {
             log.info("Cache confirmed!");
             flowCache.putAll(tempCache);
+            tempCache.forEach((hash, value) -> {
+                if (value instanceof String valueString) {
+                    transformCacheService.put(hash, valueString);
+                }
+            });
         }
 
         if (!cacheDataList.isEmpty()) {
@@ -1526,7 +1626,15 @@ public class ScriptService2 implements IScriptService {
         return handleAgent(projectContext, content, fileNames, 3);
     }
 
+    public String handleAgent(Map<String, Object> projectContext, Object content, List<String> fileNames, LLMStreamListener listener) throws Exception {
+        return handleAgent(projectContext, content, fileNames, 3, listener);
+    }
+
     public String handleAgent(Map<String, Object> projectContext, Object content, List<String> fileNames, int retries) throws Exception {
+        return handleAgent(projectContext, content, fileNames, retries, null);
+    }
+
+    public String handleAgent(Map<String, Object> projectContext, Object content, List<String> fileNames, int retries, LLMStreamListener listener) throws Exception {
         Object config = projectContext.get("agent");
         if (config == null) {
             log.warn("No agent config found, using default prompt!");
@@ -1546,6 +1654,7 @@ public class ScriptService2 implements IScriptService {
         //llmSpringService.ensureLlmThreadActive(projectContext, "agent");
         String threadId = (String) projectContext.get(CONSTANT_LLM_THREAD_KEY);
 
+        int attempt = 0;
         do {
             try {
                 if (finalConfig instanceof AgentEmbConfigDto embeddingConfig) {
@@ -1554,14 +1663,14 @@ public class ScriptService2 implements IScriptService {
                     return result;
                 } else if (finalConfig instanceof AgentDto agentConfig) {
                     if (fileNames == null || fileNames.isEmpty() || files == null || files.isEmpty()) {
-                        String result = llmSpringService.prompt(content.toString(), agentConfig, threadId);
+                        String result = llmSpringService.prompt(content.toString(), agentConfig, threadId, listener);
                         log.debug("LLM Response: {}", result);
                         return result;
                     }
 
                     boolean urlOnly = llmSpringService.isUrlOlyMode(projectContext, agentConfig);
                     if (urlOnly || fileNames == null || fileNames.isEmpty() || files == null || files.isEmpty()) {
-                        String result = llmSpringService.prompt(content.toString(), agentConfig, threadId);
+                        String result = llmSpringService.prompt(content.toString(), agentConfig, threadId, listener);
                         log.debug("LLM Response: {}", result);
                         return result;
                     }
@@ -1590,9 +1699,10 @@ public class ScriptService2 implements IScriptService {
                     throw new RuntimeException("Error during LLM execution. Retries left: " + retries + ". Error message: " + e.getMessage());
                 }
 
-                log.info("Waiting 15 seconds before trying again!");
+                var backoffMillis = llmRateLimiterService.backoffMillis(attempt++, e);
+                log.info("Waiting {} ms before trying again!", backoffMillis);
                 try {
-                    Thread.sleep(15000);
+                    Thread.sleep(backoffMillis);
                 } catch (InterruptedException ie) {
                     log.error("Sleep interrupted — forced stop requested!");
                     throw ie;
@@ -1603,6 +1713,17 @@ public class ScriptService2 implements IScriptService {
         return null;
     }
 
+    // The early stop keeps only the first markdown code block, so it's opt-in and limited to prompts directly followed by @@@extractMarkdownCode
+    private PromptProgressListener createPromptProgressListener(String flowKey, Map<String, Object> projectContext, List<TransformDto> transforms, int nextTransformIndex) {
+        var task = Utils.safeGet(() -> contextService.getFlow(flowKey).getCurrentTask(), null);
+        var fullFilePath = projectContext.get("fullFilePath") instanceof String path ? Path.of(path + ".partial") : null;
+        var isEarlyStopEnabled = Boolean.parseBoolean(String.valueOf(Utils.anyCollectionGet(projectContext, "recipe.config.llmStreamEarlyStop")));
+        var isFollowedByExtraction = nextTransformIndex < transforms.size()
+                && "extractmarkdowncode".equalsIgnoreCase(transforms.get(nextTransformIndex).getCommand());
+
+        return new PromptProgressListener(task, fullFilePath, isEarlyStopEnabled && isFollowedByExtraction);
+    }
+
     @Override
     public Object autoEval(String content) throws Exception {
         return autoEval(content, new ConcurrentLinkedList<>());
@@ -9,6 +9,7 @@ import com.capco.brsp.synthesisengine.dto.grammars.GrammarDto;
 import com.capco.brsp.synthesisengine.enums.EnumEvaluateTypes;
 import com.capco.brsp.synthesisengine.flow.EnumTaskStatus;
 import com.capco.brsp.synthesisengine.flow.Flow;
+import com.capco.brsp.synthesisengine.flow.FlowStateStore;
 import com.capco.brsp.synthesisengine.flow.Task;
 import com.capco.brsp.synthesisengine.utils.*;
 import com.jayway.jsonpath.JsonPath;
@@ -30,7 +31,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.stream.IntStream;
 
 import static com.capco.brsp.synthesisengine.utils.Utils.convertToConcurrent;
@@ -68,6 +69,7 @@ public class SynthesisEngineService {
 
     private final ApplicationContext applicationContext;
     private final ScriptService2 scriptService;
+    private final FlowStateStore flowStateStore;
     @Autowired
     @Qualifier("contextService")
     private ContextService contextService;
@@ -225,10 +227,7 @@ public class SynthesisEngineService {
         }
 
         if (contextService.getProjectContext() == null) {
-            var projectContextBackupPath = FileUtils.absolutePathJoin(rootFolder, "meta", "projectContext");
-            if (FileUtils.isFileExists(projectContextBackupPath) && !isFresh) {
-                String projectContextBackupString = FileUtil.readAsString(new File(projectContextBackupPath.toString()));
-                var projectContext = (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(JsonUtils.readAsMap(projectContextBackupString));
+            if (!isFresh && ContextJournal.load(Flow.getJournalFolder(FileUtils.absolutePathJoin(rootFolder, "meta"), flowStateStore)) instanceof ConcurrentLinkedHashMap<String, Object> projectContext) {
                 contextService.loadProjectContext(flowKey, projectContext);
             } else {
                 contextService.startNewProjectContextKey(projectUUID, contextKey);
@@ -361,18 +360,28 @@ public class SynthesisEngineService {
             flowName = internalExecutorName + "-" + flowKey;
         }
 
-        Queue<Task> finalTasks = new ConcurrentLinkedQueue<>();
+        Queue<Task> finalTasks = new ConcurrentLinkedDeque<>();
+        List<Task> regularTasks = new ArrayList<>();
         var numberOfTasks = listTaskMap.size();
         IntStream.range(0, listTaskMap.size()).forEach(i -> {
             var it = listTaskMap.get(i);
-            finalTasks.add(Task.builder()
+            var task = Task.builder()
                     .name(it.getName())
                     .status(EnumTaskStatus.NEW)
                     .startMessage("[" + (i + 1) + "/" + numberOfTasks + "] Running - " + it.getName())
                     .endMessage("[" + (i + 1) + "/" + numberOfTasks + "] Completed - " + it.getName())
                     .weight(1)
                     .runnable(it.getRunnable())
-                    .build());
+                    .exclusive(it.isExclusive())
+                    .afterAll(it.isAfterAll())
+                    .inputHash(it.getInputHash())
+                    .outputPath(it.getOutputPath())
+                    .dependsOn(it.isAfterAll() ? List.copyOf(regularTasks) : List.of())
+                    .build();
+            if (!it.isAfterAll()) {
+                regularTasks.add(task);
+            }
+            finalTasks.add(task);
         });
 
         Flow flow = Flow.builder()
@@ -386,6 +395,8 @@ public class SynthesisEngineService {
                 .tasks(finalTasks)
                 .totalWeight(finalTasks.stream().mapToInt(Task::getWeight).sum())
                 .projectContext(projectContext)
+                .parallelism(Flow.resolveParallelism(concurrentRecipe))
+                .stateStore(flowStateStore)
                 .build();
 
         log.info("Starting the tasks execution...");
@@ -438,10 +449,7 @@ public class SynthesisEngineService {
         }
 
         if (contextService.getProjectContext() == null) {
-            var projectContextBackupPath = FileUtils.absolutePathJoin(rootFolder, "meta", "projectContext");
-            if (FileUtils.isFileExists(projectContextBackupPath) && !isFresh) {
-                String projectContextBackupString = FileUtil.readAsString(new File(projectContextBackupPath.toString()));
-                var projectContext = (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(JsonUtils.readAsMap(projectContextBackupString));
+            if (!isFresh && ContextJournal.load(Flow.getJournalFolder(FileUtils.absolutePathJoin(rootFolder, "meta"), flowStateStore)) instanceof ConcurrentLinkedHashMap<String, Object> projectContext) {
                 contextService.loadProjectContext(flowKey, projectContext);
             } else {
                 contextService.startNewProjectContextKey(projectUUID, contextKey);
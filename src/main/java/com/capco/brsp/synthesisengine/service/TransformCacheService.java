@@ -0,0 +1,60 @@
+package com.capco.brsp.synthesisengine.service;
+
+import com.capco.brsp.synthesisengine.utils.DiskCache;
+import com.capco.brsp.synthesisengine.utils.FileUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * Disk-backed, content-addressed store for transform results. Entries are shared by every flow and survive restarts,
+ * they expire after {@code configs.cache.transforms.ttlHours} and the least recently used ones are evicted once the
+ * store grows beyond {@code configs.cache.transforms.maxSizeMb}.
+ */
+@Slf4j
+@Service(value = "transformCacheService")
+public class TransformCacheService {
+    @Value("${configs.cache.transforms.enabled:true}")
+    private boolean enabled = true;
+    @Value("${configs.cache.transforms.ttlHours:168}")
+    private long ttlHours = 168;
+    @Value("${configs.cache.transforms.maxSizeMb:1024}")
+    private long maxSizeMb = 1024;
+
+    private DiskCache diskCache;
+
+    @PostConstruct
+    private void postConstruct() {
+        diskCache = new DiskCache(FileUtils.absolutePathJoin(FileUtils.USER_TEMP_PROJECTS_FOLDER_PATH, ".transform-cache"), ttlHours, maxSizeMb);
+        if (enabled) {
+            diskCache.open();
+        }
+    }
+
+    public String get(String hash) {
+        return diskCache.get(hash);
+    }
+
+    public void put(String hash, String content) {
+        diskCache.put(hash, content);
+    }
+
+    public boolean remove(String hash) {
+        return diskCache.remove(hash);
+    }
+
+    public int purge() {
+        return diskCache.purge();
+    }
+
+    public int purgeExpired() {
+        return diskCache.purgeExpired();
+    }
+
+    public Map<String, Object> getStats() {
+        return diskCache.getStats();
+    }
+}
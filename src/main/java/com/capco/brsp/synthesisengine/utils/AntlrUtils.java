@@ -11,30 +11,62 @@ import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.regex.Pattern;
 
 public final class AntlrUtils {
 
     private static final String PACKAGE_NAME = "antlr4";
+    public static final Path CACHE_FOLDER = FileUtils.absolutePathJoin(FileUtils.USER_TEMP_PROJECTS_FOLDER_PATH, ".grammar-cache");
 
     private AntlrUtils() {
     }
 
+    /**
+     * Generates and compiles the grammars, or reuses them from a previous run: grammars bundled unchanged in
+     * {@code resources/antlr4} come precompiled with the application, the other ones are kept as a jar per grammar
+     * hash under {@link #CACHE_FOLDER}.
+     */
     public static LoadedGrammars load(String lexerGrammarG4, String parserGrammarG4, Map<String, String> dependencies) {
         Objects.requireNonNull(lexerGrammarG4, "lexerGrammarG4");
         Objects.requireNonNull(parserGrammarG4, "parserGrammarG4");
 
         try {
-            Path work = Files.createTempDirectory("antlr-load-");
+            String lexerName = extractGrammarName(lexerGrammarG4);
+            String parserName = extractGrammarName(parserGrammarG4);
+
+            if (isBundled(lexerGrammarG4, parserGrammarG4, dependencies)) {
+                var classLoader = AntlrUtils.class.getClassLoader();
+                return new LoadedGrammars(classLoader.loadClass(PACKAGE_NAME + "." + lexerName), classLoader.loadClass(PACKAGE_NAME + "." + parserName), classLoader, null, null, null);
+            }
+
+            Path jar = CACHE_FOLDER.resolve(cacheKey(lexerGrammarG4, parserGrammarG4, dependencies) + ".jar");
+            if (!Files.isRegularFile(jar)) {
+                compileToJar(lexerGrammarG4, lexerName, parserGrammarG4, parserName, dependencies, jar);
+            }
+
+            GeneratedClassLoader cl = new GeneratedClassLoader(new URL[]{jar.toUri().toURL()}, AntlrUtils.class.getClassLoader());
+
+            Class<?> lexerClz = cl.loadClass(PACKAGE_NAME + "." + lexerName);
+            Class<?> parserClz = cl.loadClass(PACKAGE_NAME + "." + parserName);
+
+            return new LoadedGrammars(lexerClz, parserClz, cl, null, null, null);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load grammars: " + e.getMessage(), e);
+        }
+    }
+
+    private static void compileToJar(String lexerGrammarG4, String lexerName, String parserGrammarG4, String parserName, Map<String, String> dependencies, Path jar) throws Exception {
+        Path work = Files.createTempDirectory("antlr-load-");
+        try {
             Path genDir = work.resolve("gen");
             Path classesDir = work.resolve("classes");
             Files.createDirectories(genDir);
             Files.createDirectories(classesDir);
 
-            String lexerName = extractGrammarName(lexerGrammarG4);
-            String parserName = extractGrammarName(parserGrammarG4);
-
             Path lexerFile = genDir.resolve(lexerName + ".g4");
             Path parserFile = genDir.resolve(parserName + ".g4");
 
@@ -93,15 +125,61 @@ public final class AntlrUtils {
             int rc = javac.run(null, null, null, jcArgs.toArray(new String[0]));
             if (rc != 0) throw new IllegalStateException("javac failed with exit code " + rc);
 
-            GeneratedClassLoader cl = new GeneratedClassLoader(new URL[]{classesDir.toUri().toURL()}, AntlrUtils.class.getClassLoader());
+            // Written aside and moved, so a concurrent load never sees a partial jar
+            Files.createDirectories(jar.getParent());
+            Path tempJar = Files.createTempFile(jar.getParent(), jar.getFileName().toString(), ".tmp");
+            writeJar(classesDir, tempJar);
+            Files.move(tempJar, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteRecursive(work);
+        }
+    }
 
-            Class<?> lexerClz = cl.loadClass(PACKAGE_NAME + "." + lexerName);
-            Class<?> parserClz = cl.loadClass(PACKAGE_NAME + "." + parserName);
+    private static void writeJar(Path classesDir, Path jar) throws IOException {
+        try (var out = new JarOutputStream(Files.newOutputStream(jar)); var files = Files.walk(classesDir)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                out.putNextEntry(new JarEntry(classesDir.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+    }
 
-            return new LoadedGrammars(lexerClz, parserClz, cl, work, genDir, classesDir);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load grammars: " + e.getMessage(), e);
+    // The ANTLR and Java versions are part of the key, the generated code and bytecode depend on both
+    private static String cacheKey(String lexerGrammarG4, String parserGrammarG4, Map<String, String> dependencies) {
+        List<String> parts = new ArrayList<>(List.of(Tool.VERSION, String.valueOf(Runtime.version().feature()), lexerGrammarG4, parserGrammarG4));
+        new TreeMap<>(dependencies).forEach((fqn, src) -> {
+            parts.add(fqn);
+            parts.add(src);
+        });
+
+        return Utils.hashString(parts.toArray(new String[0]));
+    }
+
+    private static boolean isBundled(String lexerGrammarG4, String parserGrammarG4, Map<String, String> dependencies) {
+        if (dependencies.values().stream().anyMatch(it -> !isGrammar(it))) {
+            return false;
+        }
+
+        var sources = new ArrayList<>(List.of(lexerGrammarG4, parserGrammarG4));
+        sources.addAll(dependencies.values());
+
+        for (String source : sources) {
+            var name = extractGrammarName(source);
+            try (var in = AntlrUtils.class.getClassLoader().getResourceAsStream(PACKAGE_NAME + "/" + name + ".g4")) {
+                if (in == null || !normalizeLineEndings(new String(in.readAllBytes(), StandardCharsets.UTF_8)).equals(normalizeLineEndings(source))) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
         }
+
+        return true;
+    }
+
+    private static String normalizeLineEndings(String content) {
+        return content.replace("\r\n", "\n").strip();
     }
 
     public static final class LoadedGrammars implements AutoCloseable {
@@ -125,7 +203,7 @@ public final class AntlrUtils {
 
         @Override
         public void close() throws Exception {
-            if (classLoader instanceof URLClassLoader u) u.close();
+            if (classLoader instanceof GeneratedClassLoader u) u.close();
             deleteRecursive(workspace);
         }
     }
@@ -210,7 +288,6 @@ public final class AntlrUtils {
         }
     }
 
-    @SuppressWarnings("unused")
     private static void deleteRecursive(Path root) throws IOException {
         if (root == null || !Files.exists(root)) return;
         try (var walk = Files.walk(root)) {
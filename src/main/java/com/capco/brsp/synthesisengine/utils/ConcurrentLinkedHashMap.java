@@ -1,12 +1,45 @@
 package com.capco.brsp.synthesisengine.utils;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.Serial;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-public class ConcurrentLinkedHashMap<K, V> extends LinkedHashMap<K, V> {
-    private final Lock lock = new ReentrantLock();
+/**
+ * Insertion-ordered concurrent map. Lookups go to a {@link ConcurrentHashMap} index without locking, the insertion
+ * order is kept by a skip list keyed by a sequence number, and every update of a key runs inside the index's per-key
+ * atomic section, so both structures always agree. Iterators and views are weakly consistent (they never throw
+ * {@link ConcurrentModificationException}). Like {@link LinkedHashMap}, null keys and values are accepted and
+ * overwriting a key keeps its original position. It is serialized as a plain {@link LinkedHashMap} copy.
+ */
+public class ConcurrentLinkedHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final Object NULL_KEY = new Object();
+    private static final VarHandle NODE_VALUE;
+
+    static {
+        try {
+            NODE_VALUE = MethodHandles.lookup().findVarHandle(Node.class, "value", Object.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final ConcurrentHashMap<Object, Node<K, V>> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Node<K, V>> order = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder modifications = new LongAdder();
+    // Kept by ContextReadRecorder with the modification count it was computed at
+    private transient volatile long[] contentHash;
 
     public ConcurrentLinkedHashMap() {
         super();
@@ -22,90 +55,535 @@ public class ConcurrentLinkedHashMap<K, V> extends LinkedHashMap<K, V> {
     }
 
     @Override
-    public V put(K key, V value) {
-        lock.lock();
-        try {
-            return super.put(key, value);
-        } finally {
-            lock.unlock();
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(maskNull(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (var node : order.values()) {
+            if (Objects.equals(valueOf(node), value)) {
+                return true;
+            }
         }
+
+        return false;
     }
 
     @Override
     public V get(Object key) {
-        lock.lock();
-        try {
-            return super.get(key);
-        } finally {
-            lock.unlock();
-        }
+        var node = index.get(maskNull(key));
+        V value = node == null ? null : valueOf(node);
+        ContextReadRecorder.recordGet(this, key, value);
+
+        return value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        var node = index.get(maskNull(key));
+        V value = node == null ? defaultValue : valueOf(node);
+        ContextReadRecorder.recordGet(this, key, value);
+
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        var previous = new Result<V>();
+        index.compute(maskNull(key), (k, node) -> {
+            if (node == null) {
+                return link(key, value);
+            }
+
+            previous.value = valueOf(node);
+            assign(node, value);
+            return node;
+        });
+
+        return previous.value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        var previous = new Result<V>();
+        index.compute(maskNull(key), (k, node) -> {
+            if (node == null) {
+                return link(key, value);
+            }
+
+            previous.value = valueOf(node);
+            if (node.value == null) {
+                assign(node, value);
+            }
+            return node;
+        });
+
+        return previous.value;
     }
 
     @Override
     public V remove(Object key) {
-        lock.lock();
-        try {
-            return super.remove(key);
-        } finally {
-            lock.unlock();
+        var previous = new Result<V>();
+        index.computeIfPresent(maskNull(key), (k, node) -> {
+            previous.value = valueOf(node);
+            return unlink(node);
+        });
+
+        return previous.value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        var removed = new Result<Boolean>();
+        index.computeIfPresent(maskNull(key), (k, node) -> {
+            if (!Objects.equals(valueOf(node), value)) {
+                return node;
+            }
+
+            removed.value = true;
+            return unlink(node);
+        });
+
+        return removed.value != null;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        var previous = new Result<V>();
+        index.computeIfPresent(maskNull(key), (k, node) -> {
+            previous.value = valueOf(node);
+            assign(node, value);
+            return node;
+        });
+
+        return previous.value;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        var replaced = new Result<Boolean>();
+        index.computeIfPresent(maskNull(key), (k, node) -> {
+            if (Objects.equals(valueOf(node), oldValue)) {
+                assign(node, newValue);
+                replaced.value = true;
+            }
+            return node;
+        });
+
+        return replaced.value != null;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        var node = index.get(maskNull(key));
+        if (node != null && node.value != null) {
+            return valueOf(node);
+        }
+
+        // Computed outside of the index's atomic section, the recursive context helpers update this same map from the
+        // mapping function. When another thread got there first its value wins, as with putIfAbsent
+        V value = mappingFunction.apply(key);
+        if (value == null) {
+            return null;
         }
+
+        V previous = putIfAbsent(key, value);
+
+        return previous != null ? previous : value;
     }
 
     @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
-        lock.lock();
-        try {
-            super.putAll(m);
-        } finally {
-            lock.unlock();
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        var result = new Result<V>();
+        index.computeIfPresent(maskNull(key), (k, node) -> {
+            if (node.value == null) {
+                return node;
+            }
+
+            result.value = remappingFunction.apply(key, valueOf(node));
+            return store(key, node, result.value);
+        });
+
+        return result.value;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        var result = new Result<V>();
+        index.compute(maskNull(key), (k, node) -> {
+            result.value = remappingFunction.apply(key, node == null ? null : valueOf(node));
+            return store(key, node, result.value);
+        });
+
+        return result.value;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        var result = new Result<V>();
+        index.compute(maskNull(key), (k, node) -> {
+            result.value = node == null || node.value == null ? value : remappingFunction.apply(valueOf(node), value);
+            return store(key, node, result.value);
+        });
+
+        return result.value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        ContextReadRecorder.recordIteration(this);
+        for (var node : order.values()) {
+            action.accept(node.key, valueOf(node));
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        for (var node : order.values()) {
+            index.computeIfPresent(maskNull(node.key), (k, current) -> {
+                if (current == node) {
+                    assign(current, function.apply(current.key, valueOf(current)));
+                }
+                return current;
+            });
         }
     }
 
     @Override
     public void clear() {
-        lock.lock();
-        try {
-            super.clear();
-        } finally {
-            lock.unlock();
+        for (var node : order.values()) {
+            removeNode(node);
         }
     }
 
     @Override
-    public boolean equals(Object obj) {
-        if (this == obj) {
-            return true;
+    public Set<K> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new NodeIterator<>(node -> node.key);
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentLinkedHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                var node = index.get(maskNull(o));
+                return node != null && removeNode(node);
+            }
+
+            @Override
+            public void clear() {
+                ConcurrentLinkedHashMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new NodeIterator<>(node -> valueOf(node));
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentLinkedHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                ConcurrentLinkedHashMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new NodeIterator<>(NodeEntry::new);
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentLinkedHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry<?, ?> entry)) {
+                    return false;
+                }
+
+                var node = index.get(maskNull(entry.getKey()));
+                return node != null && Objects.equals(valueOf(node), entry.getValue());
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                return o instanceof Map.Entry<?, ?> entry && ConcurrentLinkedHashMap.this.remove(entry.getKey(), entry.getValue());
+            }
+
+            @Override
+            public void clear() {
+                ConcurrentLinkedHashMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Weakly consistent copy, concurrent updates made while copying may or may not be included.
+     */
+    public Map<K, V> createSnapshot() {
+        return new ConcurrentLinkedHashMap<>(this);
+    }
+
+    /**
+     * Number of structural and value changes made so far. Converting a deferred value on read doesn't count as one.
+     */
+    public long getModifications() {
+        return modifications.sum();
+    }
+
+    long[] getContentHash() {
+        return contentHash;
+    }
+
+    void setContentHash(long[] contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    // Visits the stored values as they are, deferred containers are not converted
+    void forEachRaw(BiConsumer<? super K, Object> action) {
+        for (var node : order.values()) {
+            action.accept(node.key, node.value);
         }
-        if (!(obj instanceof ConcurrentLinkedHashMap<?, ?> other)) {
-            return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    void putDeferred(K key, DeferredValue value) {
+        put(key, (V) value);
+    }
+
+    // Deferred nested containers are converted on first read and swapped in, so it happens only once per entry
+    @SuppressWarnings("unchecked")
+    private V valueOf(Node<K, V> node) {
+        V value = node.value;
+        if (value instanceof DeferredValue deferred) {
+            V converted = (V) deferred.get();
+            NODE_VALUE.compareAndSet(node, value, converted);
+
+            return converted;
         }
-        lock.lock();
-        other.lock.lock();
-        try {
-            return super.equals(other);
-        } finally {
-            lock.unlock();
-            other.lock.unlock();
+
+        return value;
+    }
+
+    private Node<K, V> link(K key, V value) {
+        var node = new Node<>(sequence.incrementAndGet(), key, value);
+        order.put(node.order, node);
+        modifications.increment();
+        ContextReadRecorder.recordWrite(this, key);
+
+        return node;
+    }
+
+    private Node<K, V> unlink(Node<K, V> node) {
+        order.remove(node.order, node);
+        modifications.increment();
+        ContextReadRecorder.recordWrite(this, node.key);
+        return null;
+    }
+
+    private void assign(Node<K, V> node, V value) {
+        node.value = value;
+        modifications.increment();
+        ContextReadRecorder.recordWrite(this, node.key);
+    }
+
+    // A null value removes the mapping, as in the Map compute methods contract
+    private Node<K, V> store(K key, Node<K, V> node, V value) {
+        if (value == null) {
+            return node == null ? null : unlink(node);
         }
+
+        if (node == null) {
+            return link(key, value);
+        }
+
+        assign(node, value);
+        return node;
     }
 
-    @Override
-    public int hashCode() {
-        lock.lock();
-        try {
-            return super.hashCode();
-        } finally {
-            lock.unlock();
+    private boolean removeNode(Node<K, V> node) {
+        var removed = new Result<Boolean>();
+        index.computeIfPresent(maskNull(node.key), (k, current) -> {
+            if (current != node) {
+                return current;
+            }
+
+            removed.value = true;
+            return unlink(current);
+        });
+
+        return removed.value != null;
+    }
+
+    @Serial
+    private Object writeReplace() {
+        var copy = new LinkedHashMap<K, V>();
+        for (var node : order.values()) {
+            copy.put(node.key, valueOf(node));
         }
+
+        return new SerializedForm<>(copy);
     }
 
-    public Map<K, V> createSnapshot() {
-        lock.lock();
-        try {
-            return new ConcurrentLinkedHashMap<>(this);
-        } finally {
-            lock.unlock();
+    private record SerializedForm<K, V>(LinkedHashMap<K, V> entries) implements Serializable {
+        @Serial
+        private Object readResolve() {
+            return new ConcurrentLinkedHashMap<>(entries);
         }
     }
-}
 
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static final class Node<K, V> {
+        private final long order;
+        private final K key;
+        private volatile V value;
+
+        private Node(long order, K key, V value) {
+            this.order = order;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Result<T> {
+        private T value;
+    }
+
+    private final class NodeEntry implements Map.Entry<K, V> {
+        private final Node<K, V> node;
+
+        private NodeEntry(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        public K getKey() {
+            return node.key;
+        }
+
+        @Override
+        public V getValue() {
+            return valueOf(node);
+        }
+
+        @Override
+        public V setValue(V value) {
+            var previous = new Result<V>();
+            previous.value = valueOf(node);
+            index.computeIfPresent(maskNull(node.key), (k, current) -> {
+                if (current == node) {
+                    previous.value = valueOf(current);
+                    assign(current, value);
+                }
+                return current;
+            });
+
+            return previous.value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Map.Entry<?, ?> other
+                    && Objects.equals(node.key, other.getKey())
+                    && Objects.equals(valueOf(node), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(node.key) ^ Objects.hashCode(valueOf(node));
+        }
+
+        @Override
+        public String toString() {
+            return node.key + "=" + valueOf(node);
+        }
+    }
+
+    private final class NodeIterator<E> implements Iterator<E> {
+        private final Iterator<Node<K, V>> nodes = order.values().iterator();
+        private final Function<Node<K, V>, E> mapper;
+        private Node<K, V> current;
+
+        private NodeIterator(Function<Node<K, V>, E> mapper) {
+            this.mapper = mapper;
+            ContextReadRecorder.recordIteration(ConcurrentLinkedHashMap.this);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nodes.hasNext();
+        }
+
+        @Override
+        public E next() {
+            current = nodes.next();
+            return mapper.apply(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+
+            removeNode(current);
+            current = null;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.capco.brsp.synthesisengine.utils;
 
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-public class ConcurrentLinkedHashSet<E> extends LinkedHashSet<E> {
-    private final Lock lock = new ReentrantLock();
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Insertion-ordered concurrent set backed by the keys of a {@link ConcurrentLinkedHashMap}, so it shares its lock-free
+ * lookups and weakly consistent iteration. It is serialized as a plain {@link LinkedHashSet} copy.
+ */
+public class ConcurrentLinkedHashSet<E> extends AbstractSet<E> implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final ConcurrentLinkedHashMap<E, Boolean> map = new ConcurrentLinkedHashMap<>();
 
     public ConcurrentLinkedHashSet() {
         super();
@@ -24,105 +28,70 @@ public class ConcurrentLinkedHashSet<E> extends LinkedHashSet<E> {
 
     @Override
     public boolean add(E e) {
-        lock.lock();
-        try {
-            return super.add(e);
-        } finally {
-            lock.unlock();
-        }
+        return map.putIfAbsent(e, Boolean.TRUE) == null;
     }
 
     @Override
     public boolean remove(Object o) {
-        lock.lock();
-        try {
-            return super.remove(o);
-        } finally {
-            lock.unlock();
-        }
+        return map.remove(o) != null;
     }
 
     @Override
     public boolean contains(Object o) {
-        lock.lock();
-        try {
-            return super.contains(o);
-        } finally {
-            lock.unlock();
-        }
+        return map.containsKey(o);
     }
 
     @Override
     public void clear() {
-        lock.lock();
-        try {
-            super.clear();
-        } finally {
-            lock.unlock();
-        }
+        map.clear();
     }
 
     @Override
-    public boolean addAll(java.util.Collection<? extends E> c) {
-        lock.lock();
-        try {
-            return super.addAll(c);
-        } finally {
-            lock.unlock();
-        }
+    public int size() {
+        return map.size();
     }
 
     @Override
-    public boolean removeAll(java.util.Collection<?> c) {
-        lock.lock();
-        try {
-            return super.removeAll(c);
-        } finally {
-            lock.unlock();
-        }
+    public boolean isEmpty() {
+        return map.isEmpty();
     }
 
     @Override
-    public boolean retainAll(java.util.Collection<?> c) {
-        lock.lock();
-        try {
-            return super.retainAll(c);
-        } finally {
-            lock.unlock();
-        }
+    public Iterator<E> iterator() {
+        return map.keySet().iterator();
     }
 
+    // The size may change while iterating, so the elements are collected before sizing the array
     @Override
-    public int size() {
-        lock.lock();
-        try {
-            return super.size();
-        } finally {
-            lock.unlock();
-        }
+    public Object[] toArray() {
+        return elements().toArray();
     }
 
     @Override
-    public boolean isEmpty() {
-        lock.lock();
-        try {
-            return super.isEmpty();
-        } finally {
-            lock.unlock();
-        }
+    public <T> T[] toArray(T[] a) {
+        return elements().toArray(a);
     }
 
-    @Override
-    public Iterator<E> iterator() {
-        return super.iterator();
+    private List<E> elements() {
+        var elements = new ArrayList<E>();
+        forEach(elements::add);
+
+        return elements;
     }
 
     public Set<E> createSnapshot() {
-        lock.lock();
-        try {
-            return new ConcurrentLinkedHashSet<>(this);
-        } finally {
-            lock.unlock();
+        return new ConcurrentLinkedHashSet<>(this);
+    }
+
+    @Serial
+    private Object writeReplace() {
+        return new SerializedForm<>(new LinkedHashSet<>(elements()));
+    }
+
+    private record SerializedForm<E>(LinkedHashSet<E> elements) implements Serializable {
+        @Serial
+        private Object readResolve() {
+            return new ConcurrentLinkedHashSet<>(elements);
         }
     }
 }
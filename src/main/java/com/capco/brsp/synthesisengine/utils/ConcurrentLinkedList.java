@@ -1,18 +1,47 @@
 package com.capco.brsp.synthesisengine.utils;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
-public class ConcurrentLinkedList<E> extends LinkedList<E> {
-    private final Lock lock = new ReentrantLock();
+/**
+ * Array-backed concurrent list with O(1) indexed reads. Reads are lock-free in the common case (optimistic
+ * {@link StampedLock} reads that only fall back to a read lock when a write raced with them) and writes are
+ * serialized. Iterators are weakly consistent, they walk the live list by index and never throw
+ * {@link ConcurrentModificationException}; bulk operations (equals, hashCode, toArray, streams) see an atomic snapshot.
+ * The name and the {@link Deque} methods are kept from the former {@link LinkedList} based implementation, but it is
+ * not a {@link Deque} anymore: as a {@link List} and a {@link Deque} its {@code reversed()} view would have to be both.
+ * It is serialized as a plain {@link ArrayList} copy.
+ */
+public class ConcurrentLinkedList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final Object ABSENT = new Object();
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private final StampedLock lock = new StampedLock();
+    private Object[] elements;
+    private int size;
+    // Kept by ContextReadRecorder with the modification count it was computed at
+    private volatile long[] contentHash;
+    // Count of writes, used to detect lost updates in the operations that run callbacks outside the lock
+    private long modifications;
 
     public ConcurrentLinkedList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConcurrentLinkedList(int initialCapacity) {
         super();
+        this.elements = new Object[Math.max(initialCapacity, 1)];
     }
 
     public ConcurrentLinkedList(Collection<E> copy) {
-        super();
+        this(copy == null ? DEFAULT_CAPACITY : copy.size());
         if (copy != null) {
             this.addAll(copy);
         }
@@ -22,98 +51,707 @@ public class ConcurrentLinkedList<E> extends LinkedList<E> {
         return new ConcurrentLinkedList<>();
     }
 
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int result = size;
+        if (lock.validate(stamp)) {
+            return result;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public E get(int index) {
+        var element = getOrAbsent(index);
+        if (element == ABSENT) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        E value = element instanceof DeferredValue deferred ? swapDeferred(index, deferred) : elementOf(element);
+        ContextReadRecorder.recordGet(this, index, value);
+
+        return value;
+    }
+
+    @Override
+    public E set(int index, E element) {
+        long stamp = lock.writeLock();
+        try {
+            Objects.checkIndex(index, size);
+            E previous = elementOf(elements[index]);
+            elements[index] = element;
+            modified();
+
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     @Override
     public boolean add(E e) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            return super.add(e);
+            ensureCapacity(size + 1);
+            elements[size++] = e;
+            modified();
+
+            return true;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public boolean remove(Object o) {
-        lock.lock();
+    public void add(int index, E element) {
+        long stamp = lock.writeLock();
         try {
-            return super.remove(o);
+            Objects.checkIndex(index, size + 1);
+            ensureCapacity(size + 1);
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = element;
+            size++;
+            modified();
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public E get(int index) {
-        lock.lock();
+    public boolean addAll(Collection<? extends E> c) {
+        return addAll(-1, c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        // Copied before locking, the source may be this list or may block while being iterated
+        var added = c.toArray();
+        if (added.length == 0) {
+            return false;
+        }
+
+        long stamp = lock.writeLock();
         try {
-            return super.get(index);
+            int position = index < 0 ? size : index;
+            Objects.checkIndex(position, size + 1);
+            ensureCapacity(size + added.length);
+            System.arraycopy(elements, position, elements, position + added.length, size - position);
+            System.arraycopy(added, 0, elements, position, added.length);
+            size += added.length;
+            modified();
+
+            return true;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public int size() {
-        lock.lock();
+    public E remove(int index) {
+        long stamp = lock.writeLock();
         try {
-            return super.size();
+            Objects.checkIndex(index, size);
+            E previous = elementOf(elements[index]);
+            fastRemove(index);
+
+            return previous;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
+    @Override
+    public boolean remove(Object o) {
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(elements, size, o);
+            if (index < 0) {
+                return false;
+            }
+            fastRemove(index);
+
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Callbacks run outside the lock (they may read this list), the result is applied only if no write happened meanwhile
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        while (true) {
+            long version = modifications();
+            var snapshot = toArray();
+            var kept = new ArrayList<>(snapshot.length);
+            for (Object element : snapshot) {
+                if (!filter.test(elementOf(element))) {
+                    kept.add(element);
+                }
+            }
+
+            if (kept.size() == snapshot.length) {
+                return false;
+            }
+
+            if (replaceContentIfUnchanged(version, kept.toArray())) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(it -> !c.contains(it));
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<E> operator) {
+        Objects.requireNonNull(operator);
+        do {
+            long version = modifications();
+            var replaced = toArray();
+            for (int i = 0; i < replaced.length; i++) {
+                replaced[i] = operator.apply(elementOf(replaced[i]));
+            }
+
+            if (replaceContentIfUnchanged(version, replaced)) {
+                return;
+            }
+        } while (true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sort(Comparator<? super E> c) {
+        do {
+            long version = modifications();
+            var sorted = toArray();
+            Arrays.sort((E[]) sorted, c);
+
+            if (replaceContentIfUnchanged(version, sorted)) {
+                return;
+            }
+        } while (true);
+    }
+
     @Override
     public void clear() {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            super.clear();
+            Arrays.fill(elements, 0, size, null);
+            size = 0;
+            modified();
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public boolean addAll(Collection<? extends E> c) {
-        lock.lock();
+    public E removeFirst() {
+        long stamp = lock.writeLock();
         try {
-            return super.addAll(c);
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            E first = elementOf(elements[0]);
+            fastRemove(0);
+
+            return first;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
+    @Override
+    public E removeLast() {
+        long stamp = lock.writeLock();
+        try {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            E last = elementOf(elements[size - 1]);
+            fastRemove(size - 1);
+
+            return last;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean offer(E e) {
+        return add(e);
+    }
+
+    public boolean offerFirst(E e) {
+        addFirst(e);
+        return true;
+    }
+
+    public boolean offerLast(E e) {
+        return add(e);
+    }
+
+    public void push(E e) {
+        addFirst(e);
+    }
+
+    public E pop() {
+        return removeFirst();
+    }
+
+    public E remove() {
+        return removeFirst();
+    }
+
+    public E poll() {
+        return pollFirst();
+    }
+
+    public E pollFirst() {
+        long stamp = lock.writeLock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            E first = elementOf(elements[0]);
+            fastRemove(0);
+
+            return first;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public E pollLast() {
+        long stamp = lock.writeLock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            E last = elementOf(elements[size - 1]);
+            fastRemove(size - 1);
+
+            return last;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public E element() {
+        return getFirst();
+    }
+
+    public E peek() {
+        return peekFirst();
+    }
+
+    public E peekFirst() {
+        var element = getOrAbsent(0);
+
+        return element == ABSENT ? null : elementOf(element);
+    }
+
+    public E peekLast() {
+        var snapshot = toArray();
+
+        return snapshot.length == 0 ? null : elementOf(snapshot[snapshot.length - 1]);
+    }
+
+    public boolean removeFirstOccurrence(Object o) {
+        return remove(o);
+    }
+
+    public boolean removeLastOccurrence(Object o) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = size - 1; i >= 0; i--) {
+                if (Objects.equals(o, DeferredValue.resolve(elements[i]))) {
+                    fastRemove(i);
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Walks a snapshot from the last element, so it doesn't support removing
+    public Iterator<E> descendingIterator() {
+        var snapshot = toArray();
+
+        return new Iterator<>() {
+            private int cursor = snapshot.length;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > 0;
+            }
+
+            @Override
+            public E next() {
+                if (cursor == 0) {
+                    throw new NoSuchElementException();
+                }
+
+                return elementOf(snapshot[--cursor]);
+            }
+        };
+    }
+
+    @Override
+    public E getFirst() {
+        var element = getOrAbsent(0);
+        if (element == ABSENT) {
+            throw new NoSuchElementException();
+        }
+
+        return elementOf(element);
+    }
+
+    @Override
+    public E getLast() {
+        var snapshot = toArray();
+        if (snapshot.length == 0) {
+            throw new NoSuchElementException();
+        }
+
+        return elementOf(snapshot[snapshot.length - 1]);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        var snapshot = toArray();
+        return indexOf(snapshot, snapshot.length, o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        var snapshot = toArray();
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            if (Objects.equals(o, snapshot[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public Object[] toArray() {
+        long stamp = lock.tryOptimisticRead();
+        Object[] current = elements;
+        int currentSize = size;
+        if (currentSize <= current.length) {
+            var copy = Arrays.copyOf(current, currentSize);
+            if (lock.validate(stamp)) {
+                return resolveDeferred(copy);
+            }
+        }
+
+        Object[] copy;
+        stamp = lock.readLock();
+        try {
+            copy = Arrays.copyOf(elements, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        return resolveDeferred(copy);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        var snapshot = toArray();
+        if (a.length < snapshot.length) {
+            return (T[]) Arrays.copyOf(snapshot, snapshot.length, a.getClass());
+        }
+
+        System.arraycopy(snapshot, 0, a, 0, snapshot.length);
+        if (a.length > snapshot.length) {
+            a[snapshot.length] = null;
+        }
+
+        return a;
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        ContextReadRecorder.recordIteration(this);
+        for (Object element : toArray()) {
+            action.accept(elementOf(element));
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        ContextReadRecorder.recordIteration(this);
+        return new IndexIterator();
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        ContextReadRecorder.recordIteration(this);
+        return Spliterators.spliterator(toArray(), Spliterator.ORDERED);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
             return true;
         }
-        if (!(obj instanceof ConcurrentLinkedList<?> other)) {
+        if (!(obj instanceof List<?> other)) {
             return false;
         }
-        lock.lock();
+
+        return Arrays.asList(toArray()).equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<E> createSnapshot() {
+        return new ArrayList<>((List<E>) Arrays.asList(toArray()));
+    }
+
+    /**
+     * Number of changes made so far. Converting a deferred element on read doesn't count as one.
+     */
+    public long getModifications() {
+        return modifications();
+    }
+
+    long[] getContentHash() {
+        return contentHash;
+    }
+
+    void setContentHash(long[] contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    // Copy of the stored elements as they are, deferred containers are not converted
+    Object[] rawElements() {
+        long stamp = lock.readLock();
         try {
-            return super.equals(other);
+            return Arrays.copyOf(elements, size);
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
-    @Override
-    public int hashCode() {
-        lock.lock();
+    @Serial
+    private Object writeReplace() {
+        return new SerializedForm<>(new ArrayList<>(createSnapshot()));
+    }
+
+    private record SerializedForm<E>(ArrayList<E> elements) implements Serializable {
+        @Serial
+        private Object readResolve() {
+            return new ConcurrentLinkedList<>(elements);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void addDeferred(DeferredValue value) {
+        add((E) (Object) value);
+    }
+
+    // Deferred nested containers are converted on first read, the converted value replaces it when the lock is free
+    private E swapDeferred(int index, DeferredValue deferred) {
+        E converted = elementOf(deferred.get());
+        long stamp = lock.tryWriteLock();
+        if (stamp != 0) {
+            try {
+                if (index < size && elements[index] == deferred) {
+                    elements[index] = converted;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        return converted;
+    }
+
+    private static Object[] resolveDeferred(Object[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = DeferredValue.resolve(array[i]);
+        }
+
+        return array;
+    }
+
+    private long modifications() {
+        long stamp = lock.readLock();
         try {
-            return super.hashCode();
+            return modifications;
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
-    public List<E> createSnapshot() {
-        lock.lock();
+    private boolean replaceContentIfUnchanged(long version, Object[] content) {
+        long stamp = lock.writeLock();
+        try {
+            if (modifications != version) {
+                return false;
+            }
+
+            Arrays.fill(elements, 0, size, null);
+            ensureCapacity(content.length);
+            System.arraycopy(content, 0, elements, 0, content.length);
+            size = content.length;
+            modified();
+
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Object getOrAbsent(int index) {
+        long stamp = lock.tryOptimisticRead();
+        Object[] current = elements;
+        int currentSize = size;
+        Object element = index >= 0 && index < currentSize && index < current.length ? current[index] : ABSENT;
+        if (lock.validate(stamp)) {
+            return element;
+        }
+
+        stamp = lock.readLock();
         try {
-            return new LinkedList<>(this);
+            return index >= 0 && index < size ? elements[index] : ABSENT;
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Callers hold the write lock
+    private void modified() {
+        modifications++;
+        ContextReadRecorder.recordWrite(this, null);
+    }
+
+    // Callers hold the write lock
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(minCapacity, elements.length + (elements.length >> 1)));
+        }
+    }
+
+    // Callers hold the write lock
+    private void fastRemove(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(elements, index + 1, elements, index, moved);
+        }
+        elements[--size] = null;
+        modified();
+    }
+
+    private static int indexOf(Object[] array, int length, Object o) {
+        for (int i = 0; i < length; i++) {
+            if (Objects.equals(o, DeferredValue.resolve(array[i]))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E elementOf(Object element) {
+        return (E) DeferredValue.resolve(element);
+    }
+
+    private class IndexIterator implements Iterator<E> {
+        private int cursor;
+        private int lastReturned = -1;
+        private Object lastElement;
+        private Object next = ABSENT;
+
+        @Override
+        public boolean hasNext() {
+            if (next == ABSENT) {
+                next = getOrAbsent(cursor);
+            }
+
+            return next != ABSENT;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            E element = elementOf(next);
+            next = ABSENT;
+            lastElement = element;
+            lastReturned = cursor++;
+
+            return element;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+
+            int index;
+            long stamp = lock.writeLock();
+            try {
+                // The element may have moved if the list was changed since it was returned
+                index = lastReturned < size && DeferredValue.resolve(elements[lastReturned]) == lastElement ? lastReturned : -1;
+                for (int i = 0; index < 0 && i < size; i++) {
+                    if (DeferredValue.resolve(elements[i]) == lastElement) {
+                        index = i;
+                    }
+                }
+                if (index >= 0) {
+                    fastRemove(index);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            if (index >= 0 && index < cursor) {
+                cursor--;
+            }
+            lastReturned = -1;
+            lastElement = null;
+            next = ABSENT;
         }
     }
 }
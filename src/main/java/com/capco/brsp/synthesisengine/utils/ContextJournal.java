@@ -0,0 +1,435 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.ParsedObjects;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.proleap.cobol.asg.metamodel.ModelElement;
+import lombok.extern.slf4j.Slf4j;
+import org.antlr.v4.runtime.tree.Tree;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Incremental checkpoint of a project context, kept as a compacted Smile snapshot plus an append-only journal of the
+ * entries changed since it was written. Nested maps are followed down to {@link #MAX_RECORD_DEPTH} levels, so a change
+ * under {@code files_metadata} only journals the entry of that file. Changes are detected by fingerprinting each entry:
+ * strings and numbers by value, the DTOs by their serialized fields, the other objects by identity. Parse results are
+ * fixed once parsed and their other fields are views built from the parse, so they are fingerprinted by identity. Concurrent containers
+ * holding only such plain values are not walked again until their modification counter moves. The journal is folded
+ * into a new snapshot once it grows bigger than the snapshot itself. The context must not be updated while a
+ * checkpoint runs.
+ */
+@Slf4j
+public class ContextJournal {
+    public static final String SNAPSHOT_FILE_NAME = "projectContext.smile";
+    public static final String JOURNAL_FILE_NAME = "projectContext.journal";
+    // The JSON checkpoint written by previous versions, still accepted when loading
+    public static final String LEGACY_FILE_NAME = "projectContext";
+
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+    private static final String CIRCULAR_MOCK_VALUE = "[reference omitted due to circular structure]";
+    private static final long MIN_COMPACTION_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_RECORD_DEPTH = 4;
+    private static final String DTO_PACKAGE = "com.capco.brsp.synthesisengine.dto.";
+    private static final Map<Class<?>, List<Field>> DTO_FIELDS = new ConcurrentHashMap<>();
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private Fingerprint fingerprints;
+    private Map<Object, long[]> settledContainers = new IdentityHashMap<>();
+    private long snapshotBytes;
+    private long journalBytes;
+
+    public ContextJournal(Path metaFolder) {
+        this.snapshotPath = metaFolder.resolve(SNAPSHOT_FILE_NAME);
+        this.journalPath = metaFolder.resolve(JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Appends the entries changed since the previous checkpoint. The first checkpoint of an instance, and any
+     * checkpoint finding a journal bigger than the snapshot, writes a compacted snapshot instead.
+     */
+    public synchronized void checkpoint(Map<String, Object> context) {
+        if (context == null) {
+            return;
+        }
+
+        if (fingerprints == null || journalBytes > Math.max(snapshotBytes, MIN_COMPACTION_BYTES)) {
+            compact(context);
+            return;
+        }
+
+        var current = fingerprintContext(context);
+        if (current.hash() == fingerprints.hash()) {
+            return;
+        }
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            journalChanges(out, new ArrayList<>(), context, current, fingerprints);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the context journal '" + journalPath + "'", e);
+        }
+
+        fingerprints = current;
+    }
+
+    // Follows the nested maps that were maps at both checkpoints, anything else changed is journaled as a whole
+    private void journalChanges(DataOutputStream out, List<String> path, Object value, Fingerprint current, Fingerprint previous) throws IOException {
+        if (previous != null && current.hash() == previous.hash()) {
+            return;
+        }
+
+        if (previous == null || current.children() == null || previous.children() == null) {
+            journalBytes += writeRecord(out, path, value, false);
+            return;
+        }
+
+        var map = (Map<?, ?>) value;
+        for (var child : current.children().entrySet()) {
+            var previousChild = previous.children().get(child.getKey());
+            // Only the changed entries are read, reading the others would convert their deferred containers
+            if (previousChild != null && previousChild.hash() == child.getValue().hash()) {
+                continue;
+            }
+
+            path.add(child.getKey());
+            journalChanges(out, path, map.get(child.getKey()), child.getValue(), previousChild);
+            path.removeLast();
+        }
+
+        for (var key : previous.children().keySet()) {
+            if (!current.children().containsKey(key)) {
+                path.add(key);
+                journalBytes += writeRecord(out, path, null, true);
+                path.removeLast();
+            }
+        }
+    }
+
+    public synchronized void compact(Map<String, Object> context) {
+        var current = fingerprintContext(context);
+        var snapshot = new LinkedHashMap<String, Object>();
+        current.children().keySet().forEach(key -> snapshot.put(key, serializableEntry(key, context.get(key))));
+
+        try {
+            Files.createDirectories(snapshotPath.getParent());
+            var tempPath = snapshotPath.resolveSibling(SNAPSHOT_FILE_NAME + ".tmp");
+            byte[] bytes;
+            try {
+                bytes = SMILE_MAPPER.writeValueAsBytes(snapshot);
+            } catch (JsonProcessingException e) {
+                // Rare, so only then each entry is checked on its own to keep the ones that can be serialized
+                snapshot.replaceAll((key, value) -> isSerializable(value) ? value : errorValue(key, e));
+                bytes = SMILE_MAPPER.writeValueAsBytes(snapshot);
+            }
+            Files.write(tempPath, bytes);
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(journalPath);
+            snapshotBytes = bytes.length;
+            journalBytes = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the context snapshot '" + snapshotPath + "'", e);
+        }
+
+        fingerprints = current;
+    }
+
+    /**
+     * Rebuilds the context from the snapshot and replays the journal over it. A record cut by a crash at the end of
+     * the journal is ignored. Falls back to the legacy JSON checkpoint, returns null when there's none.
+     */
+    @SuppressWarnings("unchecked")
+    public static ConcurrentLinkedHashMap<String, Object> load(Path metaFolder) {
+        var snapshotPath = metaFolder.resolve(SNAPSHOT_FILE_NAME);
+        var journalPath = metaFolder.resolve(JOURNAL_FILE_NAME);
+        var legacyPath = metaFolder.resolve(LEGACY_FILE_NAME);
+
+        try {
+            Map<String, Object> context;
+            if (Files.exists(snapshotPath)) {
+                context = SMILE_MAPPER.readValue(snapshotPath.toFile(), MAP_TYPE);
+            } else if (Files.exists(journalPath)) {
+                context = new LinkedHashMap<>();
+            } else if (Files.exists(legacyPath)) {
+                context = JsonUtils.readAsMap(Files.readString(legacyPath));
+            } else {
+                return null;
+            }
+
+            if (Files.exists(journalPath)) {
+                replay(journalPath, context);
+            }
+
+            return (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(context);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load the project context checkpoint from '" + metaFolder + "'", e);
+        }
+    }
+
+    private static void replay(Path journalPath, Map<String, Object> context) throws IOException {
+        int records = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            while (true) {
+                byte[] bytes;
+                try {
+                    bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                Map<String, Object> record = SMILE_MAPPER.readValue(bytes, MAP_TYPE);
+                // Journals written by previous versions only have top-level keys
+                var path = record.get("path") instanceof List<?> recordPath ? recordPath.stream().map(String::valueOf).toList() : List.of(String.valueOf(record.get("key")));
+                var parent = parentOf(context, path);
+                if (Boolean.TRUE.equals(record.get("removed"))) {
+                    parent.remove(path.getLast());
+                } else {
+                    parent.put(path.getLast(), record.get("value"));
+                }
+                records++;
+            }
+        }
+
+        log.info("Replayed {} context journal records from '{}'", records, journalPath);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parentOf(Map<String, Object> context, List<String> path) {
+        var parent = context;
+        for (var key : path.subList(0, path.size() - 1)) {
+            if (!(parent.get(key) instanceof Map<?, ?> child)) {
+                var created = new LinkedHashMap<String, Object>();
+                parent.put(key, created);
+                parent = created;
+            } else {
+                parent = (Map<String, Object>) child;
+            }
+        }
+
+        return parent;
+    }
+
+    private static int writeRecord(DataOutputStream out, List<String> path, Object value, boolean removed) throws IOException {
+        var key = path.getLast();
+        var record = new LinkedHashMap<String, Object>();
+        record.put("path", List.copyOf(path));
+        if (removed) {
+            record.put("removed", true);
+        } else {
+            record.put("value", serializableEntry(key, value));
+        }
+
+        byte[] bytes;
+        try {
+            bytes = SMILE_MAPPER.writeValueAsBytes(record);
+        } catch (JsonProcessingException e) {
+            record.put("value", errorValue(key, e));
+            bytes = SMILE_MAPPER.writeValueAsBytes(record);
+        }
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+
+        return Integer.BYTES + bytes.length;
+    }
+
+    // Same shape as the JSON checkpoint: a concurrent copy with the circular references replaced by a mock value
+    private static Object serializableEntry(String key, Object value) {
+        var entry = new ConcurrentLinkedHashMap<String, Object>();
+        entry.put(key, value);
+        var snapshot = (Map<?, ?>) Utils.convertToConcurrent(entry);
+        Utils.replaceKeysWithMockValue(snapshot, CIRCULAR_MOCK_VALUE, "parent", "meta", ModelElement.class, Tree.class);
+
+        return snapshot.get(key);
+    }
+
+    private static boolean isSerializable(Object value) {
+        try {
+            SMILE_MAPPER.writeValueAsBytes(value);
+            return true;
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    private static String errorValue(String key, Exception e) {
+        log.error("Failed to serialize the context entry '{}', its error is stored in place of the value!", key, e);
+        return JsonUtils.throwableAsJson(e);
+    }
+
+    private record Fingerprint(long hash, Map<String, Fingerprint> children) {
+    }
+
+    private Fingerprint fingerprintContext(Map<String, Object> context) {
+        var settled = new IdentityHashMap<Object, long[]>();
+        var fingerprint = fingerprintEntry(context, 0, settled);
+        settledContainers = settled;
+
+        return fingerprint;
+    }
+
+    // Maps with string keys are split into one record per entry, the other values are a single record
+    private Fingerprint fingerprintEntry(Object value, int depth, Map<Object, long[]> settled) {
+        if (depth < MAX_RECORD_DEPTH && value instanceof Map<?, ?> map && map.keySet().stream().allMatch(String.class::isInstance)) {
+            var children = new LinkedHashMap<String, Fingerprint>();
+            long[] hash = {1};
+            BiConsumer<Object, Object> addChild = (key, childValue) -> {
+                var child = fingerprintEntry(childValue, depth + 1, settled);
+                children.put((String) key, child);
+                hash[0] = hash[0] * 31 + (key.hashCode() ^ child.hash());
+            };
+            // The deferred containers stay unconverted, they are single records until something reads them
+            if (map instanceof ConcurrentLinkedHashMap<?, ?> concurrentMap) {
+                concurrentMap.forEachRaw(addChild);
+            } else {
+                map.forEach(addChild);
+            }
+
+            return new Fingerprint(hash[0], children);
+        }
+
+        return new Fingerprint(fingerprint(value, Collections.newSetFromMap(new IdentityHashMap<>()), settled), null);
+    }
+
+    private long fingerprint(Object value, Set<Object> visited, Map<Object, long[]> settled) {
+        if (value == null) {
+            return 0;
+        }
+        if (isPlainValue(value)) {
+            return value.hashCode();
+        }
+        if (value instanceof DeferredValue deferred) {
+            return fingerprint(deferred.peek(), visited, settled);
+        }
+
+        long hash = System.identityHashCode(value);
+        if (!visited.add(value)) {
+            return hash;
+        }
+
+        if (value instanceof ConcurrentLinkedHashMap<?, ?> map) {
+            var modifications = map.getModifications();
+            if (reuseSettled(map, modifications, settled) instanceof Long settledHash) {
+                return settledHash;
+            }
+
+            long[] acc = {hash * 31 + modifications, 1};
+            map.forEachRaw((key, child) -> {
+                acc[0] = acc[0] * 31 + (Objects.hashCode(key) ^ fingerprint(child, visited, settled));
+                acc[1] &= child == null || isPlainValue(child) ? 1 : 0;
+            });
+            return settle(map, modifications, acc[0], acc[1] == 1, settled);
+        }
+        if (value instanceof ConcurrentLinkedList<?> list) {
+            var modifications = list.getModifications();
+            if (reuseSettled(list, modifications, settled) instanceof Long settledHash) {
+                return settledHash;
+            }
+
+            hash = hash * 31 + modifications;
+            boolean plainOnly = true;
+            for (Object child : list.rawElements()) {
+                hash = hash * 31 + fingerprint(child, visited, settled);
+                plainOnly &= child == null || isPlainValue(child);
+            }
+            return settle(list, modifications, hash, plainOnly, settled);
+        }
+        if (value instanceof Map<?, ?> map) {
+            hash = hash * 31 + map.size();
+            for (var entry : map.entrySet()) {
+                hash = hash * 31 + (Objects.hashCode(entry.getKey()) ^ fingerprint(entry.getValue(), visited, settled));
+            }
+            return hash;
+        }
+        if (value instanceof Collection<?> collection) {
+            hash = hash * 31 + collection.size();
+            for (Object child : collection) {
+                hash = hash * 31 + fingerprint(child, visited, settled);
+            }
+            return hash;
+        }
+        // DTOs like the transform histories are updated in place after being added to the context. Their fields are
+        // read as they are, the getters may build lazy views
+        if (isDto(value) && !(value instanceof ParsedObjects)) {
+            hash = value.getClass().hashCode();
+            for (var field : getDtoFields(value.getClass())) {
+                try {
+                    hash = hash * 31 + fingerprint(field.get(value), visited, settled);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    return System.identityHashCode(value);
+                }
+            }
+            return hash;
+        }
+
+        return hash;
+    }
+
+    // A concurrent container holding only plain values can't change without its modification counter moving
+    private Long reuseSettled(Object container, long modifications, Map<Object, long[]> settled) {
+        var previous = settledContainers.get(container);
+        if (previous == null || previous[0] != modifications) {
+            return null;
+        }
+
+        settled.put(container, previous);
+        return previous[1];
+    }
+
+    private static long settle(Object container, long modifications, long hash, boolean plainOnly, Map<Object, long[]> settled) {
+        if (plainOnly) {
+            settled.put(container, new long[]{modifications, hash});
+        }
+
+        return hash;
+    }
+
+    private static boolean isPlainValue(Object value) {
+        return value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Enum<?>;
+    }
+
+    static boolean isDto(Object value) {
+        return value.getClass().getName().startsWith(DTO_PACKAGE);
+    }
+
+    // The fields that end up in the checkpoint, the transient and ignored ones are left out
+    static List<Field> getDtoFields(Class<?> type) {
+        return DTO_FIELDS.computeIfAbsent(type, ContextJournal::dtoFields);
+    }
+
+    private static List<Field> dtoFields(Class<?> type) {
+        var fields = new ArrayList<Field>();
+        for (var current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (var field : current.getDeclaredFields()) {
+                var modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() || field.isAnnotationPresent(JsonIgnore.class)) {
+                    continue;
+                }
+
+                try {
+                    field.setAccessible(true);
+                    fields.add(field);
+                } catch (RuntimeException e) {
+                    log.warn("The field '{}' of '{}' is not fingerprinted, it can't be accessed", field.getName(), type.getName());
+                }
+            }
+        }
+
+        return fields;
+    }
+}
@@ -0,0 +1,289 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.ParsedObjects;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Records the entries of a project context read while a task runs, as paths from the context root plus a hash of the
+ * value read, so a later run can tell whether anything the task depended on has changed. Nested values are followed
+ * through the {@link ConcurrentLinkedHashMap} and {@link ConcurrentLinkedList} read hooks, iterating a container or
+ * reading any other kind of value depends on its whole content, and entries the task wrote before reading them are
+ * not dependencies. The hooks are no-ops unless a recorder is bound with {@link #run(Runnable)}. Overlays created
+ * while recording (parallel tasks) are roots too, so what the task writes into them is known.
+ */
+@Slf4j
+public final class ContextReadRecorder {
+    private static final ScopedValue<ContextReadRecorder> CURRENT = ScopedValue.newInstance();
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MAP_SEED = 17;
+    private static final long LIST_SEED = 19;
+
+    private final Map<Object, List<Object>> paths = new IdentityHashMap<>();
+    private final Set<List<Object>> written = new HashSet<>();
+    private final Map<String, String> dependencies = new LinkedHashMap<>();
+    private int suspended;
+
+    public ContextReadRecorder(Map<?, ?> root) {
+        paths.put(root, List.of());
+    }
+
+    public void run(Runnable runnable) {
+        ScopedValue.where(CURRENT, this).run(runnable);
+    }
+
+    /**
+     * Encoded path of each value read mapped to the hash it had when first read.
+     */
+    public synchronized Map<String, String> getDependencies() {
+        return new LinkedHashMap<>(dependencies);
+    }
+
+    /**
+     * Current hash of the value at an encoded path, comparable with the ones in {@link #getDependencies()}.
+     */
+    public static String hashAt(Map<?, ?> root, String encodedPath) {
+        Object current = root;
+        try {
+            for (Object segment : JsonUtils.readAsList(encodedPath)) {
+                if (current instanceof Map<?, ?> map) {
+                    current = segment instanceof Map<?, ?> typedKey ? getByTypedKey(map, typedKey) : map.get(segment);
+                } else if (current instanceof List<?> list && segment instanceof Integer index && index < list.size()) {
+                    current = list.get(index);
+                } else {
+                    current = null;
+                    break;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+
+        return hash(current);
+    }
+
+    static void recordRoot(Object container) {
+        if (CURRENT.isBound()) {
+            CURRENT.get().onRoot(container);
+        }
+    }
+
+    static void recordGet(Object container, Object key, Object value) {
+        if (CURRENT.isBound()) {
+            CURRENT.get().onGet(container, key, value);
+        }
+    }
+
+    static void recordIteration(Object container) {
+        if (CURRENT.isBound()) {
+            CURRENT.get().onIteration(container);
+        }
+    }
+
+    static void recordWrite(Object container, Object key) {
+        if (CURRENT.isBound()) {
+            CURRENT.get().onWrite(container, key);
+        }
+    }
+
+    private synchronized void onRoot(Object container) {
+        paths.putIfAbsent(container, List.of());
+    }
+
+    private synchronized void onGet(Object container, Object key, Object value) {
+        var path = suspended == 0 ? paths.get(container) : null;
+        if (path == null) {
+            return;
+        }
+
+        path = append(path, key);
+        if (isWritten(path)) {
+            return;
+        }
+
+        // Only the concurrent containers report the reads made on them, any other value is a dependency as a whole
+        if (value instanceof ConcurrentLinkedHashMap<?, ?> || value instanceof ConcurrentLinkedList<?>) {
+            paths.putIfAbsent(value, path);
+        } else {
+            addDependency(path, value);
+        }
+    }
+
+    private synchronized void onIteration(Object container) {
+        var path = suspended == 0 ? paths.get(container) : null;
+        if (path != null && !isWritten(path)) {
+            addDependency(path, container);
+        }
+    }
+
+    private synchronized void onWrite(Object container, Object key) {
+        var path = suspended == 0 ? paths.get(container) : null;
+        if (path != null) {
+            written.add(key == null ? path : append(path, key));
+        }
+    }
+
+    // Hashing reads the values again, so the hooks are suspended meanwhile
+    private void addDependency(List<Object> path, Object value) {
+        var encodedPath = JsonUtils.writeAsJsonString(path, false);
+        if (dependencies.containsKey(encodedPath)) {
+            return;
+        }
+
+        suspended++;
+        try {
+            dependencies.put(encodedPath, hash(value));
+        } finally {
+            suspended--;
+        }
+    }
+
+    private boolean isWritten(List<Object> path) {
+        for (int i = 0; i <= path.size(); i++) {
+            if (written.contains(path.subList(0, i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<Object> append(List<Object> path, Object key) {
+        var appended = new ArrayList<>(path);
+        appended.add(key instanceof Integer || key instanceof String ? key : typedKey(key));
+
+        return Collections.unmodifiableList(appended);
+    }
+
+    // Other keys keep their type in the path, a Long or an enum key written as a string would never be found again
+    private static Map<String, String> typedKey(Object key) {
+        return key == null ? null : Map.of("type", key.getClass().getName(), "value", String.valueOf(key));
+    }
+
+    private static Object getByTypedKey(Map<?, ?> map, Map<?, ?> typedKey) {
+        for (var entry : map.entrySet()) {
+            var key = entry.getKey();
+            if (key != null && key.getClass().getName().equals(typedKey.get("type")) && String.valueOf(key).equals(typedKey.get("value"))) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Hash of the content of a value, as the dependencies record it. Concurrent containers holding only plain values
+     * keep theirs until they are modified, so hashing an unchanged one again doesn't walk it.
+     */
+    public static String hash(Object value) {
+        return Long.toHexString(contentHash(value, Collections.newSetFromMap(new IdentityHashMap<>())));
+    }
+
+    // Hashes the content, so it's the same in a later run, walking the concurrent containers without their read hooks.
+    // Their hash is kept until their modification counter moves when they only hold plain values
+    static long contentHash(Object value, Set<Object> visited) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence chars) {
+            return hash64(FNV_OFFSET, chars);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return hash64(hash64(FNV_OFFSET, value.getClass().getSimpleName()), value.toString());
+        }
+        if (value instanceof Enum<?> constant) {
+            return hash64(hash64(FNV_OFFSET, constant.getDeclaringClass().getName()), constant.name());
+        }
+        // A parse is decided by its grammar and its input, its tree would be built and serialized otherwise
+        if (value instanceof ParsedObjects parsed && parsed.getCharStream() != null) {
+            var parser = parsed.getParser();
+            return hash64(hash64(FNV_OFFSET, parser == null ? "" : parser.getClass().getName()), parsed.getCharStream().toString());
+        }
+        if (value instanceof DeferredValue deferred) {
+            return contentHash(deferred.peek(), visited);
+        }
+        if (!visited.add(value)) {
+            return LIST_SEED * MAP_SEED;
+        }
+
+        try {
+            if (value instanceof ConcurrentLinkedHashMap<?, ?> map) {
+                var modifications = map.getModifications();
+                if (map.getContentHash() instanceof long[] cached && cached[0] == modifications) {
+                    return cached[1];
+                }
+
+                long[] acc = {MAP_SEED, 1};
+                map.forEachRaw((key, child) -> {
+                    acc[0] = acc[0] * 31 + (contentHash(key, visited) ^ Long.rotateLeft(contentHash(child, visited), 1));
+                    acc[1] &= isPlainValue(child) ? 1 : 0;
+                });
+                if (acc[1] == 1) {
+                    map.setContentHash(new long[]{modifications, acc[0]});
+                }
+                return acc[0];
+            }
+            if (value instanceof ConcurrentLinkedList<?> list) {
+                var modifications = list.getModifications();
+                if (list.getContentHash() instanceof long[] cached && cached[0] == modifications) {
+                    return cached[1];
+                }
+
+                long hash = LIST_SEED;
+                boolean plainOnly = true;
+                for (Object child : list.rawElements()) {
+                    hash = hash * 31 + contentHash(child, visited);
+                    plainOnly &= isPlainValue(child);
+                }
+                if (plainOnly) {
+                    list.setContentHash(new long[]{modifications, hash});
+                }
+                return hash;
+            }
+            if (value instanceof Map<?, ?> map) {
+                long hash = MAP_SEED;
+                for (var entry : map.entrySet()) {
+                    hash = hash * 31 + (contentHash(entry.getKey(), visited) ^ Long.rotateLeft(contentHash(entry.getValue(), visited), 1));
+                }
+                return hash;
+            }
+            if (value instanceof Collection<?> collection) {
+                long hash = LIST_SEED;
+                for (Object child : collection) {
+                    hash = hash * 31 + contentHash(child, visited);
+                }
+                return hash;
+            }
+            // DTOs are hashed by the fields that are serialized, as they are, the getters may build lazy views
+            if (ContextJournal.isDto(value)) {
+                long hash = hash64(FNV_OFFSET, value.getClass().getName());
+                for (var field : ContextJournal.getDtoFields(value.getClass())) {
+                    hash = hash * 31 + contentHash(field.get(value), visited);
+                }
+                return hash;
+            }
+        } catch (IllegalAccessException e) {
+            log.warn("The fields of '{}' can't be read, it's hashed by its JSON", value.getClass().getName());
+        } finally {
+            visited.remove(value);
+        }
+
+        return hash64(FNV_OFFSET, JsonUtils.writeAsJsonStringCircular(value, false, false));
+    }
+
+    private static boolean isPlainValue(Object value) {
+        return value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Enum<?>;
+    }
+
+    private static long hash64(long hash, CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            hash ^= chars.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+}
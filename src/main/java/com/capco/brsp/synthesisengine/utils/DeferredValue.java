@@ -0,0 +1,32 @@
+package com.capco.brsp.synthesisengine.utils;
+
+/**
+ * Plain nested container held by a concurrent collection until it is first read, see {@link Utils#convertToConcurrent(Object)}.
+ * The conversion runs once, every reader gets the same converted instance.
+ */
+final class DeferredValue {
+    private Object source;
+    private Object converted;
+
+    DeferredValue(Object source) {
+        this.source = source;
+    }
+
+    synchronized Object get() {
+        if (source != null) {
+            converted = Utils.convertToConcurrent(source);
+            source = null;
+        }
+
+        return converted;
+    }
+
+    // The container as it is, converted or not, without converting it
+    synchronized Object peek() {
+        return source != null ? source : converted;
+    }
+
+    static Object resolve(Object value) {
+        return value instanceof DeferredValue deferred ? deferred.get() : value;
+    }
+}
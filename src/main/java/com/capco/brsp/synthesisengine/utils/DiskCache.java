@@ -0,0 +1,246 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed text store on disk: one file per hash, sharded by the first two hex digits. Entries expire after
+ * {@code ttlHours} and the least recently used ones are evicted once the store grows beyond {@code maxSizeMb}.
+ */
+@Slf4j
+public class DiskCache {
+    private static final String ENTRY_EXTENSION = ".cache";
+    private static final Pattern PATTERN_HASH = Pattern.compile("^[0-9a-fA-F]{16,128}$");
+
+    private final Map<String, Long> entrySizes = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private final AtomicLong totalSize = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Path cacheFolder;
+    private final long ttlHours;
+    private final long maxSizeMb;
+    private volatile boolean enabled;
+
+    public DiskCache(Path cacheFolder, long ttlHours, long maxSizeMb) {
+        this.cacheFolder = cacheFolder;
+        this.ttlHours = ttlHours;
+        this.maxSizeMb = maxSizeMb;
+    }
+
+    /**
+     * Creates the folder and indexes the entries left by previous runs, a folder that can't be used disables the cache.
+     */
+    public DiskCache open() {
+        try {
+            Files.createDirectories(cacheFolder);
+            try (Stream<Path> files = Files.walk(cacheFolder)) {
+                files.filter(it -> it.getFileName().toString().endsWith(ENTRY_EXTENSION)).forEach(it -> {
+                    try {
+                        var size = Files.size(it);
+                        entrySizes.put(hashOf(it), size);
+                        lastAccess.put(hashOf(it), Files.getLastModifiedTime(it).toMillis());
+                        totalSize.addAndGet(size);
+                    } catch (IOException ex) {
+                        log.warn("Ignoring unreadable cache entry {}: {}", it, ex.getMessage());
+                    }
+                });
+            }
+            enabled = true;
+            log.info("Disk cache {} loaded with {} entries ({} bytes)", cacheFolder, entrySizes.size(), totalSize.get());
+        } catch (IOException ex) {
+            log.error("Failed to initialize the cache folder {}, disabling it. Error: {}", cacheFolder, ex.getMessage());
+            enabled = false;
+        }
+
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String get(String hash) {
+        if (!enabled || !isValidHash(hash) || !entrySizes.containsKey(hash)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        var path = pathOf(hash);
+        try {
+            if (isExpired(path)) {
+                remove(hash);
+                misses.incrementAndGet();
+                return null;
+            }
+
+            var content = Files.readString(path, StandardCharsets.UTF_8);
+            lastAccess.put(hash, System.currentTimeMillis());
+            hits.incrementAndGet();
+
+            return content;
+        } catch (NoSuchFileException ex) {
+            forget(hash);
+        } catch (IOException ex) {
+            log.warn("Failed to read the cache entry {}: {}", hash, ex.getMessage());
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String hash, String content) {
+        if (!enabled || !isValidHash(hash) || content == null) {
+            return;
+        }
+
+        var path = pathOf(hash);
+        try {
+            Files.createDirectories(path.getParent());
+            var tempPath = Files.createTempFile(path.getParent(), hash, ".tmp");
+            Files.writeString(tempPath, content, StandardCharsets.UTF_8);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            var size = Files.size(path);
+            var previousSize = entrySizes.put(hash, size);
+            totalSize.addAndGet(size - (previousSize == null ? 0 : previousSize));
+            lastAccess.put(hash, System.currentTimeMillis());
+        } catch (IOException ex) {
+            log.warn("Failed to write the cache entry {}: {}", hash, ex.getMessage());
+            return;
+        }
+
+        evictIfNeeded();
+    }
+
+    public boolean remove(String hash) {
+        if (!isValidHash(hash)) {
+            return false;
+        }
+
+        try {
+            Files.deleteIfExists(pathOf(hash));
+        } catch (IOException ex) {
+            log.warn("Failed to delete the cache entry {}: {}", hash, ex.getMessage());
+        }
+
+        return forget(hash);
+    }
+
+    public int purge() {
+        int removed = 0;
+        for (var hash : new ArrayList<>(entrySizes.keySet())) {
+            if (remove(hash)) {
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    public int purgeExpired() {
+        int removed = 0;
+        for (var hash : new ArrayList<>(entrySizes.keySet())) {
+            try {
+                if (isExpired(pathOf(hash)) && remove(hash)) {
+                    removed++;
+                }
+            } catch (IOException ex) {
+                forget(hash);
+            }
+        }
+
+        return removed;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentLinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("folder", cacheFolder.toString());
+        stats.put("entries", entrySizes.size());
+        stats.put("sizeBytes", totalSize.get());
+        stats.put("maxSizeBytes", maxSizeBytes());
+        stats.put("ttlHours", ttlHours);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+
+        return stats;
+    }
+
+    private void evictIfNeeded() {
+        var limit = maxSizeBytes();
+        if (totalSize.get() <= limit) {
+            return;
+        }
+
+        synchronized (this) {
+            // Evict down to 90% of the limit, so a full store doesn't evict on every single write
+            var target = limit * 9 / 10;
+            var candidates = lastAccess.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+                    .map(Map.Entry::getKey)
+                    .toList();
+            for (var hash : candidates) {
+                if (totalSize.get() <= target) {
+                    break;
+                }
+                if (remove(hash)) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean forget(String hash) {
+        lastAccess.remove(hash);
+        var size = entrySizes.remove(hash);
+        if (size != null) {
+            totalSize.addAndGet(-size);
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean isExpired(Path path) throws IOException {
+        if (ttlHours <= 0) {
+            return false;
+        }
+
+        var age = System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis();
+        return age > Duration.ofHours(ttlHours).toMillis();
+    }
+
+    private long maxSizeBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    // Hashes may arrive through the API, anything else than hex digits could escape the cache folder
+    public static boolean isValidHash(String hash) {
+        return hash != null && PATTERN_HASH.matcher(hash).matches();
+    }
+
+    private Path pathOf(String hash) {
+        var shard = hash.length() > 2 ? hash.substring(0, 2) : "_";
+        return cacheFolder.resolve(shard).resolve(hash + ENTRY_EXTENSION);
+    }
+
+    private static String hashOf(Path path) {
+        var fileName = path.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ENTRY_EXTENSION.length());
+    }
+}
@@ -0,0 +1,40 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.spel.support.ReflectiveMethodResolver;
+import org.springframework.expression.spel.support.ReflectivePropertyAccessor;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpEL evaluation context that resolves {@code #variables} straight from the live project context instead of
+ * copying it on every evaluation. Variables assigned by the expression itself stay local to this context.
+ */
+public class LazyVariableEvaluationContext extends StandardEvaluationContext {
+    // The reflective resolvers keep per-type caches, sharing them avoids rebuilding those caches per evaluation
+    private static final List<PropertyAccessor> SHARED_PROPERTY_ACCESSORS = List.of(new ReflectivePropertyAccessor());
+    private static final List<MethodResolver> SHARED_METHOD_RESOLVERS = List.of(new ReflectiveMethodResolver());
+
+    private final Map<String, Object> variables;
+
+    public LazyVariableEvaluationContext(Map<String, Object> variables) {
+        super();
+        this.variables = variables;
+        setPropertyAccessors(new ArrayList<>(SHARED_PROPERTY_ACCESSORS));
+        setMethodResolvers(new ArrayList<>(SHARED_METHOD_RESOLVERS));
+    }
+
+    @Override
+    public Object lookupVariable(String name) {
+        var localValue = super.lookupVariable(name);
+        if (localValue != null) {
+            return localValue;
+        }
+
+        return variables == null ? null : variables.get(name);
+    }
+}
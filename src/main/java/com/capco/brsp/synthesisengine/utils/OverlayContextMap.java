@@ -0,0 +1,453 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Copy-on-write view over a shared context: reads fall through to the parent map, writes and removals
+ * stay local to this overlay until they are explicitly published.
+ */
+public class OverlayContextMap<K, V> extends ConcurrentLinkedHashMap<K, V> {
+    private final Map<K, V> parent;
+    private final ConcurrentLinkedHashMap<K, V> local = new ConcurrentLinkedHashMap<>();
+    private final Set<Object> removed = new ConcurrentLinkedHashSet<>();
+    private final Set<Object> nestedKeys = new ConcurrentLinkedHashSet<>();
+
+    public OverlayContextMap(Map<K, V> parent) {
+        this(parent, true);
+    }
+
+    private OverlayContextMap(Map<K, V> parent, boolean root) {
+        super();
+        this.parent = Objects.requireNonNull(parent, "The overlay parent context should not be null!");
+        // The task writes here, its recorder has to see them to not count them as dependencies
+        if (root) {
+            ContextReadRecorder.recordRoot(local);
+        }
+    }
+
+    public Map<K, V> getParent() {
+        return parent;
+    }
+
+    /**
+     * Nested map to write into. A map of the parent is wrapped in an overlay of its own the first time, so what is
+     * written into it stays local too, and publishing the key writes its entries into the parent's map one by one
+     * instead of replacing it. Tasks writing other entries of the same map don't overwrite each other that way.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <NK, NV> Map<NK, NV> getNestedForUpdate(K key) {
+        var current = get(key);
+        // The parent's map may also have been put here as it is, it's still the shared one
+        if (nestedKeys.contains(key) || !(current instanceof Map<?, ?> parentNested) || parentNested != parent.get(key)) {
+            if (current instanceof Map<?, ?> localNested) {
+                return (Map<NK, NV>) localNested;
+            }
+
+            var created = new ConcurrentLinkedHashMap<NK, NV>();
+            put(key, (V) created);
+            return created;
+        }
+
+        var nested = new OverlayContextMap<>((Map<Object, Object>) parentNested, false);
+        // Reached through this key, so the recorder sees the writes into it under the key's path
+        ContextReadRecorder.recordGet(local, key, nested.local);
+        local.put(key, (V) nested);
+        nestedKeys.add(key);
+
+        return (Map<NK, NV>) nested;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (local.containsKey(key)) {
+            return local.get(key);
+        }
+
+        if (removed.contains(key)) {
+            return null;
+        }
+
+        return parent.get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return containsKey(key) ? get(key) : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return local.containsKey(key) || (!removed.contains(key) && parent.containsKey(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return values().contains(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        // Written before reading the previous value, so that read is not a dependency
+        ContextReadRecorder.recordWrite(local, key);
+        V previous = get(key);
+        local.put(key, value);
+        removed.remove(key);
+        nestedKeys.remove(key);
+
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        m.forEach(this::put);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V current = get(key);
+        if (current == null) {
+            put(key, value);
+        }
+
+        return current;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V current = get(key);
+        if (current == null) {
+            V newValue = mappingFunction.apply(key);
+            if (newValue != null) {
+                put(key, newValue);
+            }
+
+            return newValue;
+        }
+
+        return current;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V current = get(key);
+        if (current == null) {
+            return null;
+        }
+
+        return applyRemapping(key, remappingFunction.apply(key, current));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return applyRemapping(key, remappingFunction.apply(key, get(key)));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        V current = get(key);
+
+        return applyRemapping(key, current == null ? value : remappingFunction.apply(current, value));
+    }
+
+    private V applyRemapping(K key, V newValue) {
+        if (newValue == null) {
+            remove(key);
+        } else {
+            put(key, newValue);
+        }
+
+        return newValue;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (containsKey(key) && Objects.equals(get(key), oldValue)) {
+            put(key, newValue);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        mergedKeys().forEachRemaining(key -> put(key, function.apply(key, get(key))));
+    }
+
+    @Override
+    public V remove(Object key) {
+        ContextReadRecorder.recordWrite(local, key);
+        V previous = get(key);
+        local.remove(key);
+        nestedKeys.remove(key);
+        if (parent.containsKey(key)) {
+            removed.add(key);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (containsKey(key) && Objects.equals(get(key), value)) {
+            remove(key);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        local.clear();
+        nestedKeys.clear();
+        removed.addAll(parent.keySet());
+        ContextReadRecorder.recordWrite(local, null);
+    }
+
+    // Local keys are never removed ones, so only the parent keys they shadow or that were removed are counted twice
+    @Override
+    public int size() {
+        int size = parent.size() + local.size();
+        for (Object key : local.keySet()) {
+            if (parent.containsKey(key)) {
+                size--;
+            }
+        }
+        for (Object key : removed) {
+            if (parent.containsKey(key)) {
+                size--;
+            }
+        }
+
+        return Math.max(size, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return local.isEmpty() && !mergedKeys().hasNext();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new OverlayView<>(it -> it);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                var keys = mergedKeys();
+
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return get(keys.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OverlayContextMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new OverlayView<>(OverlayEntry::new);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        mergedKeys().forEachRemaining(key -> action.accept(key, get(key)));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Map<?, ?> other)) {
+            return false;
+        }
+
+        return createSnapshot().equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return createSnapshot().hashCode();
+    }
+
+    @Override
+    public Map<K, V> createSnapshot() {
+        var snapshot = new ConcurrentLinkedHashMap<K, V>();
+        mergedKeys().forEachRemaining(key -> snapshot.put(key, get(key)));
+
+        return snapshot;
+    }
+
+    public Map<K, V> getLocalChanges() {
+        return local.createSnapshot();
+    }
+
+    public void publish(Collection<?> keys) {
+        publish(keys::contains);
+    }
+
+    public void publish(Predicate<Object> keyFilter) {
+        local.createSnapshot().forEach((key, value) -> {
+            if (!keyFilter.test(key)) {
+                return;
+            }
+
+            if (nestedKeys.contains(key) && value instanceof OverlayContextMap<?, ?> nested) {
+                nested.publish(_ -> true);
+            } else {
+                parent.put(key, value);
+            }
+        });
+
+        for (Object key : new ArrayList<>(removed)) {
+            if (keyFilter.test(key)) {
+                parent.remove(key);
+            }
+        }
+    }
+
+    // The parent keys that are neither shadowed nor removed, then the local ones. The parent keys are walked as they
+    // are read, only the local ones (what a task wrote) are copied, so keys written while iterating are seen once
+    private Iterator<K> mergedKeys() {
+        var localSnapshot = local.createSnapshot().keySet();
+        var parentKeys = parent.keySet().iterator();
+        var localKeys = localSnapshot.iterator();
+
+        return new Iterator<>() {
+            private K next;
+            private boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                while (!hasNext && parentKeys.hasNext()) {
+                    var key = parentKeys.next();
+                    if (!localSnapshot.contains(key) && !removed.contains(key)) {
+                        next = key;
+                        hasNext = true;
+                    }
+                }
+                if (!hasNext && localKeys.hasNext()) {
+                    next = localKeys.next();
+                    hasNext = true;
+                }
+
+                return hasNext;
+            }
+
+            @Override
+            public K next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                hasNext = false;
+                return next;
+            }
+        };
+    }
+
+    private class OverlayEntry implements Map.Entry<K, V> {
+        private final K key;
+
+        OverlayEntry(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return OverlayContextMap.this.get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return OverlayContextMap.this.put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Map.Entry<?, ?> other
+                    && Objects.equals(key, other.getKey())
+                    && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+        }
+    }
+
+    private class OverlayView<E> extends AbstractSet<E> {
+        private final Function<K, E> mapper;
+
+        OverlayView(Function<K, E> mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            var keys = mergedKeys();
+
+            return new Iterator<>() {
+                private K current;
+                private boolean removable;
+
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    current = keys.next();
+                    removable = true;
+                    return mapper.apply(current);
+                }
+
+                @Override
+                public void remove() {
+                    if (!removable) {
+                        throw new IllegalStateException();
+                    }
+                    OverlayContextMap.this.remove(current);
+                    removable = false;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return OverlayContextMap.this.size();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.capco.brsp.synthesisengine.utils;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -9,9 +12,16 @@ import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
 //JsonPath.read((Object) JsonPath.read(jsonTree.toString(), "$..[?(@.name == 'classBodyDeclaration' && @..children[?(@.name == 'modifier' && @.text == '@Id')].length() > 0)]..[?(@.name == 'typeType')].text"), "$[0]")
 
 public class ParseTreeJsonConverter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
     public static ObjectNode toJson(ParseTree tree, Parser parser, TokenStream tokens) {
         ObjectMapper mapper = new ObjectMapper();
@@ -43,4 +53,97 @@ public class ParseTreeJsonConverter {
 
         return node;
     }
+
+    /**
+     * Same structure as {@link #toJson} built straight as maps and lists, the shape a JSON text read back as an object
+     * would have, without the intermediate JSON nodes and text.
+     */
+    public static Map<String, Object> toObject(ParseTree tree, Parser parser, TokenStream tokens) {
+        return new ConcurrentLinkedHashMap<>(walkObject(tree, parser, tokens));
+    }
+
+    private static Map<String, Object> walkObject(ParseTree tree, Parser parser, TokenStream tokens) {
+        Map<String, Object> node = new LinkedHashMap<>();
+
+        if (tree instanceof ParserRuleContext ctx) {
+            node.put("name", parser.getRuleNames()[ctx.getRuleIndex()]);
+            node.put("text", tokens.getText(ctx));
+        } else if (tree instanceof TerminalNode terminal) {
+            node.put("name", "terminal");
+            node.put("text", terminal.getText());
+            return node;
+        }
+
+        List<Object> children = new ArrayList<>(tree.getChildCount());
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            children.add(walkObject(tree.getChild(i), parser, tokens));
+        }
+
+        node.put("children", children);
+
+        return node;
+    }
+
+    /**
+     * Streams the tree as JSON into the file, see {@link #writeJson(ParseTree, Parser, TokenStream, JsonGenerator, Collection, int)}.
+     */
+    public static void writeJson(ParseTree tree, Parser parser, TokenStream tokens, Path target, Collection<String> ruleNames, int maxDepth) throws IOException {
+        try (OutputStream out = Files.newOutputStream(target);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            writeJson(tree, parser, tokens, generator, ruleNames, maxDepth);
+        }
+    }
+
+    /**
+     * Streams the tree with the same structure as {@link #toJson} without building it in memory. Without rule names
+     * the whole tree is written as one object, with rule names only the outermost subtrees of those rules are written,
+     * as an array. A negative maxDepth writes every level, else the written nodes keep only maxDepth levels of
+     * children below them.
+     */
+    public static void writeJson(ParseTree tree, Parser parser, TokenStream tokens, JsonGenerator generator, Collection<String> ruleNames, int maxDepth) throws IOException {
+        if (ruleNames == null || ruleNames.isEmpty()) {
+            write(tree, parser, tokens, generator, maxDepth);
+        } else {
+            generator.writeStartArray();
+            writeMatches(tree, parser, tokens, generator, Set.copyOf(ruleNames), maxDepth);
+            generator.writeEndArray();
+        }
+
+        generator.flush();
+    }
+
+    private static void writeMatches(ParseTree tree, Parser parser, TokenStream tokens, JsonGenerator generator, Set<String> ruleNames, int maxDepth) throws IOException {
+        if (tree instanceof ParserRuleContext ctx && ruleNames.contains(parser.getRuleNames()[ctx.getRuleIndex()])) {
+            write(tree, parser, tokens, generator, maxDepth);
+            return;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            writeMatches(tree.getChild(i), parser, tokens, generator, ruleNames, maxDepth);
+        }
+    }
+
+    private static void write(ParseTree tree, Parser parser, TokenStream tokens, JsonGenerator generator, int depth) throws IOException {
+        generator.writeStartObject();
+
+        if (tree instanceof ParserRuleContext ctx) {
+            generator.writeStringField("name", parser.getRuleNames()[ctx.getRuleIndex()]);
+            generator.writeStringField("text", tokens.getText(ctx));
+        } else if (tree instanceof TerminalNode terminal) {
+            generator.writeStringField("name", "terminal");
+            generator.writeStringField("text", terminal.getText());
+            generator.writeEndObject();
+            return;
+        }
+
+        if (depth != 0) {
+            generator.writeArrayFieldStart("children");
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                write(tree.getChild(i), parser, tokens, generator, depth - 1);
+            }
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+    }
 }
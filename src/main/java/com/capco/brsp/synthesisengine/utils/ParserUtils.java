@@ -1,15 +1,12 @@
 package com.capco.brsp.synthesisengine.utils;
 
 import antlr4.*;
-import atr.TreeNode;
-import atr.TreeRewriter;
 import com.capco.brsp.synthesisengine.dto.ParsedObjects;
 import com.capco.brsp.synthesisengine.dto.grammars.Grammar;
 import com.capco.brsp.synthesisengine.dto.grammars.GrammarEngine;
 import com.capco.brsp.synthesisengine.enums.EnumParserLanguage;
 import com.capco.brsp.synthesisengine.listeners.DescriptiveErrorListener;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import groovy.util.logging.Slf4j;
 import io.proleap.cobol.Cobol85Lexer;
 import io.proleap.cobol.Cobol85Parser;
@@ -23,17 +20,51 @@ import io.proleap.cobol.asg.visitor.impl.CobolCompilationUnitVisitorImpl;
 import io.proleap.cobol.preprocessor.CobolPreprocessor;
 import io.proleap.cobol.preprocessor.impl.CobolPreprocessorImpl;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
 import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.*;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @lombok.extern.slf4j.Slf4j
 @Slf4j
 public class ParserUtils {
     private static final Map<String, Grammar> GRAMMARS = new ConcurrentLinkedHashMap<>();
     private static final ParserUtils INSTANCE = new ParserUtils();
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    // Parsing is CPU bound, so the batches run on platform threads, one per core
+    private static final ExecutorService PARSE_EXECUTOR = Executors.newFixedThreadPool(PARSE_THREADS, Thread.ofPlatform().name("parser-", 1).daemon().factory());
+    // Parses share the DFA of their grammar, clearing it waits for the ones in progress
+    private static final ReadWriteLock DFA_LOCK = new ReentrantReadWriteLock();
+    // Idle lexers and parsers of each grammar, borrowed by the batch parses and given back without their input, so
+    // evicting a grammar drops all of them at once
+    private static final Map<Object, Queue<Recognizers>> IDLE_RECOGNIZERS = new ConcurrentHashMap<>();
+
+    private record Recognizers(Lexer lexer, Parser parser) {
+    }
+
+    public record ParseResult(String path, ParsedObjects parsed, Exception error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
 
     private ParserUtils() {
     }
@@ -103,6 +134,75 @@ public class ParserUtils {
     }
 
     public static ParsedObjects parse(Map<String, Grammar> grammars, String languageKey, String content, String... findRules) throws JsonProcessingException, org.antlr.runtime.RecognitionException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        return parse(resolveGrammar(grammars, languageKey), content, findRules);
+    }
+
+    public static Stream<ParseResult> parseAll(Map<String, Grammar> grammars, String languageKey, Map<String, String> contents, String... findRules) {
+        return parseAll(resolveGrammar(grammars, languageKey), contents, findRules);
+    }
+
+    /**
+     * Parses every content on a pool bounded by the number of cores, each thread reusing its lexer and parser for the
+     * grammar. Results come in completion order, a failed parse is reported in its result instead of failing the
+     * batch, and only a few parses ahead of the consumer are kept in memory. The lexer and parser of the results are
+     * reused by the next parses, so only their rule names and vocabulary remain meaningful.
+     */
+    public static Stream<ParseResult> parseAll(Grammar grammar, Map<String, String> contents, String... findRules) {
+        var pending = new ArrayDeque<>(contents.entrySet());
+        var completionService = new ExecutorCompletionService<ParseResult>(PARSE_EXECUTOR);
+        var inFlight = new ArrayList<Future<ParseResult>>();
+
+        Runnable submitNext = () -> {
+            var entry = pending.poll();
+            if (entry != null) {
+                inFlight.add(completionService.submit(() -> {
+                    try {
+                        return new ParseResult(entry.getKey(), parse(grammar, entry.getValue(), true, true, findRules), null);
+                    } catch (Exception ex) {
+                        return new ParseResult(entry.getKey(), null, ex);
+                    }
+                }));
+            }
+        };
+
+        for (int i = 0; i < PARSE_THREADS * 2; i++) {
+            submitNext.run();
+        }
+
+        var results = new Iterator<ParseResult>() {
+            @Override
+            public boolean hasNext() {
+                return !inFlight.isEmpty();
+            }
+
+            @Override
+            public ParseResult next() {
+                if (inFlight.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                try {
+                    var done = completionService.take();
+                    inFlight.remove(done);
+                    submitNext.run();
+                    return done.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting the parse results", ex);
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Failed to parse", ex.getCause());
+                }
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliterator(results, contents.size(), Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    pending.clear();
+                    inFlight.forEach(it -> it.cancel(true));
+                });
+    }
+
+    private static Grammar resolveGrammar(Map<String, Grammar> grammars, String languageKey) {
         EnumParserLanguage language = EnumParserLanguage.fromKeyIgnoreCase(languageKey);
 
         Grammar grammar = !Utils.isEmpty(grammars) ? grammars.get(languageKey) : null;
@@ -114,10 +214,19 @@ public class ParserUtils {
             grammar = Grammar.builder().enumParserLanguage(language).build();
         }
 
-        return parse(grammar, content, findRules);
+        return grammar;
     }
 
     public static ParsedObjects parse(Grammar grammar, String content, String... findRules) throws JsonProcessingException, org.antlr.runtime.RecognitionException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        return parse(grammar, content, false, true, findRules);
+    }
+
+    // Plain LL prediction when twoStagePrediction is false, to compare both in the tests and the benchmark
+    static ParsedObjects parse(Grammar grammar, String content, boolean twoStagePrediction, String... findRules) throws JsonProcessingException, org.antlr.runtime.RecognitionException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        return parse(grammar, content, false, twoStagePrediction, findRules);
+    }
+
+    private static ParsedObjects parse(Grammar grammar, String content, boolean reuseRecognizers, boolean twoStagePrediction, String... findRules) throws JsonProcessingException, org.antlr.runtime.RecognitionException, NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
         var charStream = CharStreams.fromString(content);
 
         var language = grammar.getEnumParserLanguage();
@@ -143,20 +252,22 @@ public class ParserUtils {
             content = new CobolPreprocessorImpl().process(content, CobolPreprocessor.CobolSourceFormatEnum.FIXED, cobolParserParams);
         }
 
-        var descriptiveErrorListener = DescriptiveErrorListener.getInstance();
+        // One listener per parse, the batch parses run concurrently
+        var descriptiveErrorListener = new DescriptiveErrorListener();
         descriptiveErrorListener.setThrowException(true);
 
-        Lexer lexer = switch (language) {
-            case DB2 -> new DB2zSQLLexer(charStream);
-            case COBOL -> new Cobol85Lexer(CharStreams.fromString(content));
-            case JAVA -> new JavaLexer(charStream);
-            case NATURAL -> new AdabasNaturalLexer(charStream);
-            case NATURAL_MAPS -> new AdabasNaturalMapLexer(charStream);
-            case PYTHON -> throw new UnsupportedOperationException("Python parsing is not implemented yet.");
-            case CSHARP -> throw new UnsupportedOperationException("C# parsing is not implemented yet.");
-            case CUSTOM -> (Lexer) grammar.getLexerClass().getConstructor(CharStream.class).newInstance(charStream);
-            default -> throw new IllegalStateException("Unexpected value: " + language);
-        };
+        var lexerCharStream = language == EnumParserLanguage.COBOL ? CharStreams.fromString(content) : charStream;
+        var recognizerKey = recognizerKey(grammar);
+        var idle = reuseRecognizers ? IDLE_RECOGNIZERS.computeIfAbsent(recognizerKey, _ -> new ConcurrentLinkedQueue<>()) : null;
+        var reused = idle != null ? idle.poll() : null;
+
+        Lexer lexer;
+        if (reused != null) {
+            lexer = reused.lexer();
+            lexer.setInputStream(lexerCharStream);
+        } else {
+            lexer = newLexer(language, grammar, lexerCharStream);
+        }
 
         lexer.removeErrorListeners();
         lexer.addErrorListener(descriptiveErrorListener);
@@ -170,102 +281,236 @@ public class ParserUtils {
                 .visitedRules(new ConcurrentLinkedHashMap<>())
                 .build();
 
-        switch (language) {
-            case DB2:
-                var db2Parser = new antlr4.DB2zSQLParser(tokens);
-                db2Parser.removeErrorListeners();
-                db2Parser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(db2Parser);
-                parsed.setParserRuleContext(db2Parser.startRule());
-                break;
-
-            case COBOL:
-                var cobolParser = new Cobol85Parser(tokens);
-                cobolParser.removeErrorListeners();
-                cobolParser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(cobolParser);
-                parsed.setParserRuleContext(cobolParser.startRule());
-                break;
-
-            case JAVA:
-                var javaParser = new JavaParser(tokens);
-                javaParser.removeErrorListeners();
-                javaParser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(javaParser);
-                parsed.setParserRuleContext(javaParser.compilationUnit());
-                break;
-
-            case NATURAL:
-                var naturalParser = new AdabasNaturalParser(tokens);
-                naturalParser.removeErrorListeners();
-                naturalParser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(naturalParser);
-                parsed.setParserRuleContext(naturalParser.program());
-                break;
-
-            case NATURAL_MAPS:
-                var naturalMapParser = new AdabasNaturalMapParser(tokens);
-                naturalMapParser.removeErrorListeners();
-                naturalMapParser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(naturalMapParser);
-                parsed.setParserRuleContext(naturalMapParser.map());
-                break;
-
-            case PYTHON:
-            case CSHARP:
-                throw new UnsupportedOperationException("Not implemented yet!");
-
-            case CUSTOM:
-                var customParser = (Parser) grammar.getParserClass().getConstructor(TokenStream.class).newInstance(tokens);
-                customParser.removeErrorListeners();
-                customParser.addErrorListener(descriptiveErrorListener);
-                parsed.setParser(customParser);
-
-                var entryRule = Utils.nvl(grammar.getEntryRule(), customParser.getRuleNames()[0]);
-                var m = customParser.getClass().getMethod(entryRule);
-                parsed.setParserRuleContext((ParserRuleContext) m.invoke(customParser));
-                break;
+        Parser parser;
+        if (reused != null) {
+            parser = reused.parser();
+            parser.setTokenStream(tokens);
+        } else {
+            parser = newParser(language, grammar, tokens);
         }
 
-        if (findRules != null) {
-            for (var findRule : findRules) {
-                int ruleIndex = ruleIndex(parsed.getParser(), findRule);
-                var findRuleList = parsed.getVisitedRules().computeIfAbsent(findRule, _ -> new ConcurrentLinkedList<>());
-                findRuleList.addAll(findAll(parsed.getParserRuleContext(), ruleIndex));
+        DFA_LOCK.readLock().lock();
+        try {
+            parsed.setParser(parser);
+            parsed.setParserRuleContext(parseTwoStage(language, grammar, parser, descriptiveErrorListener, twoStagePrediction));
+
+            if (findRules != null) {
+                for (var findRule : findRules) {
+                    int ruleIndex = ruleIndex(parsed.getParser(), findRule);
+                    var findRuleList = parsed.getVisitedRules().computeIfAbsent(findRule, _ -> new ConcurrentLinkedList<>());
+                    findRuleList.addAll(findAll(parsed.getParserRuleContext(), ruleIndex));
+                }
+            }
+
+            if (language == EnumParserLanguage.COBOL) {
+                var cobolParserRunner = new CobolParserRunnerImpl() {
+                    @Override
+                    protected void analyze(final Program program) {
+                        super.analyze(program);
+                    }
+                };
+
+                final Program program = new ProgramImpl();
+                final List<String> lines = splitLines(content);
+                final String hash = Utils.hashString(content);
+                final ParserVisitor baseVisitor = new CobolCompilationUnitVisitorImpl(hash, lines, tokens, program);
+                baseVisitor.visit(parsed.getParserRuleContext());
+                cobolParserRunner.analyze(program);
+
+                parsed.setAsg(program.getCompilationUnits().getFirst().getProgramUnits().getFirst());
+            }
+
+            // The views built later read the tokens, they are lexed to the end while this lexer still reads the content
+            tokens.fill();
+        } finally {
+            DFA_LOCK.readLock().unlock();
+            if (idle != null) {
+                giveBack(recognizerKey, idle, lexer, parser);
             }
         }
 
-        if (language == EnumParserLanguage.COBOL) {
-            var cobolParserRunner = new CobolParserRunnerImpl() {
-                @Override
-                protected void analyze(final Program program) {
-                    super.analyze(program);
+        return parsed;
+    }
+
+    private static Object recognizerKey(Grammar grammar) {
+        var language = grammar.getEnumParserLanguage();
+
+        return language == EnumParserLanguage.CUSTOM ? grammar.getParserClass() : language;
+    }
+
+    // The idle recognizers keep no input, token stream nor context of the last parse. The parser simulator holds the
+    // last ones it predicted on, so it's replaced by a fresh one sharing the same DFA
+    private static void giveBack(Object recognizerKey, Queue<Recognizers> idle, Lexer lexer, Parser parser) {
+        lexer.setInputStream(null);
+        lexer.removeErrorListeners();
+        parser.setTokenStream(null);
+        parser.removeErrorListeners();
+        var interpreter = parser.getInterpreter();
+        parser.setInterpreter(new ParserATNSimulator(parser, parser.getATN(), interpreter.decisionToDFA, interpreter.getSharedContextCache()));
+
+        // Borrowed before the grammar was evicted
+        if (IDLE_RECOGNIZERS.get(recognizerKey) == idle) {
+            idle.offer(new Recognizers(lexer, parser));
+        }
+    }
+
+    /**
+     * Streams the parse tree as JSON into the file instead of building it in memory, for sources too big for
+     * {@link ParsedObjects#getJsonTree()}. With rule names only their subtrees are written, for example the findRules of
+     * the parse, and a non-negative maxDepth limits how many levels are kept below each written node.
+     */
+    public static void exportJson(ParsedObjects parsed, Path target, int maxDepth, String... ruleNames) throws IOException {
+        if (parsed.getParserRuleContext() == null) {
+            throw new IllegalArgumentException("There is no parse tree to export, it is only kept for grammar parses");
+        }
+
+        ParseTreeJsonConverter.writeJson(parsed.getParserRuleContext(), parsed.getParser(), parsed.getTokens(), target, Arrays.asList(ruleNames), maxDepth);
+    }
+
+    // SLL prediction is much faster and enough for most inputs. It bails out on the first syntax error, which is then
+    // told apart from an SLL limitation by parsing again with full LL and the usual error reporting
+    private static ParserRuleContext parseTwoStage(EnumParserLanguage language, Grammar grammar, Parser parser, ANTLRErrorListener errorListener, boolean twoStagePrediction) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        if (twoStagePrediction) {
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            try {
+                return parseEntryRule(language, grammar, parser);
+            } catch (ParseCancellationException ignored) {
+                // Falls back to LL below
+            } catch (InvocationTargetException ex) {
+                if (!(ex.getCause() instanceof ParseCancellationException)) {
+                    throw ex;
                 }
-            };
+            }
 
-            final Program program = new ProgramImpl();
-            final List<String> lines = splitLines(content);
-            final String hash = Utils.hashString(content);
-            final ParserVisitor baseVisitor = new CobolCompilationUnitVisitorImpl(hash, lines, tokens, program);
-            baseVisitor.visit(parsed.getParserRuleContext());
-            cobolParserRunner.analyze(program);
+            parser.reset();
+        }
+
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
 
-            parsed.setAsg(program.getCompilationUnits().getFirst().getProgramUnits().getFirst());
+        return parseEntryRule(language, grammar, parser);
+    }
+
+    /**
+     * Number of DFA states the lexer and parser of the grammar have cached so far. The cache is shared by every parse
+     * with the grammar and only grows, see {@link #clearDfaCache(Grammar)}.
+     */
+    public static int getDfaCacheSize(Grammar grammar) {
+        var recognizers = newIdleRecognizers(grammar);
+        if (recognizers == null) {
+            return 0;
         }
 
-        TreeNode treeNode = new TreeRewriter(parsed.getParserRuleContext()).rewrite();
-        parsed.setTreeNode(treeNode);
+        return dfaSize(recognizers.lexer().getInterpreter().decisionToDFA) + dfaSize(recognizers.parser().getInterpreter().decisionToDFA);
+    }
 
-        ObjectNode jsonTree = ParseTreeJsonConverter.toJson(parsed.getParserRuleContext(), parsed.getParser(), parsed.getTokens());
-        parsed.setJsonTree(jsonTree);
+    /**
+     * Empties the DFA cache of the grammar. ANTLR doesn't support clearing it while it's in use, so this waits for the
+     * parses in progress, of any grammar, and holds the new ones until it's done.
+     */
+    public static void clearDfaCache(Grammar grammar) {
+        var recognizers = newIdleRecognizers(grammar);
+        if (recognizers == null) {
+            return;
+        }
 
-        String jsonString = JsonUtils.writeAsJsonString(jsonTree, true);
-        parsed.setJsonString(jsonString);
+        DFA_LOCK.writeLock().lock();
+        try {
+            recognizers.lexer().getInterpreter().clearDFA();
+            recognizers.parser().getInterpreter().clearDFA();
+        } finally {
+            DFA_LOCK.writeLock().unlock();
+        }
+    }
 
-        var jsonObject = JsonUtils.readAsObject(jsonString, null);
-        parsed.setJsonObject(jsonObject);
+    /**
+     * Forgets a grammar prepared with {@link #prepareGrammar}, dropping its idle recognizers, clearing its DFA cache and
+     * closing the class loader of its generated classes, so grammars no longer used don't keep their caches alive.
+     */
+    public static void evictGrammar(Grammar grammar) {
+        GRAMMARS.values().removeIf(it -> it == grammar);
+        IDLE_RECOGNIZERS.remove(recognizerKey(grammar));
+        clearDfaCache(grammar);
+
+        if (grammar.getClassLoader() instanceof AntlrUtils.GeneratedClassLoader classLoader) {
+            try {
+                classLoader.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close the class loader of the grammar '{}'", grammar.getName(), ex);
+            }
+        }
+    }
 
-        return parsed;
+    // The DFA of a recognizer class is static, any instance gives access to it
+    private static Recognizers newIdleRecognizers(Grammar grammar) {
+        var language = grammar.getEnumParserLanguage();
+        if (language == EnumParserLanguage.MARKDOWN) {
+            return null;
+        }
+
+        try {
+            var lexer = newLexer(language, grammar, CharStreams.fromString(""));
+            return new Recognizers(lexer, newParser(language, grammar, new CommonTokenStream(lexer)));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to instantiate the recognizers of the grammar '" + grammar.getName() + "'", ex);
+        }
+    }
+
+    private static int dfaSize(DFA[] decisionToDFA) {
+        int states = 0;
+        for (DFA dfa : decisionToDFA) {
+            states += dfa.states.size();
+        }
+
+        return states;
+    }
+
+    private static Lexer newLexer(EnumParserLanguage language, Grammar grammar, CharStream charStream) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        return switch (language) {
+            case DB2 -> new DB2zSQLLexer(charStream);
+            case COBOL -> new Cobol85Lexer(charStream);
+            case JAVA -> new JavaLexer(charStream);
+            case NATURAL -> new AdabasNaturalLexer(charStream);
+            case NATURAL_MAPS -> new AdabasNaturalMapLexer(charStream);
+            case PYTHON -> throw new UnsupportedOperationException("Python parsing is not implemented yet.");
+            case CSHARP -> throw new UnsupportedOperationException("C# parsing is not implemented yet.");
+            case CUSTOM -> (Lexer) grammar.getLexerClass().getConstructor(CharStream.class).newInstance(charStream);
+            default -> throw new IllegalStateException("Unexpected value: " + language);
+        };
+    }
+
+    private static Parser newParser(EnumParserLanguage language, Grammar grammar, TokenStream tokens) throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        return switch (language) {
+            case DB2 -> new antlr4.DB2zSQLParser(tokens);
+            case COBOL -> new Cobol85Parser(tokens);
+            case JAVA -> new JavaParser(tokens);
+            case NATURAL -> new AdabasNaturalParser(tokens);
+            case NATURAL_MAPS -> new AdabasNaturalMapParser(tokens);
+            case CUSTOM -> (Parser) grammar.getParserClass().getConstructor(TokenStream.class).newInstance(tokens);
+            default -> throw new UnsupportedOperationException("Not implemented yet!");
+        };
+    }
+
+    private static ParserRuleContext parseEntryRule(EnumParserLanguage language, Grammar grammar, Parser parser) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        return switch (parser) {
+            case antlr4.DB2zSQLParser db2Parser -> db2Parser.startRule();
+            case Cobol85Parser cobolParser -> cobolParser.startRule();
+            case JavaParser javaParser -> javaParser.compilationUnit();
+            case AdabasNaturalParser naturalParser -> naturalParser.program();
+            case AdabasNaturalMapParser naturalMapParser -> naturalMapParser.map();
+            default -> {
+                if (language != EnumParserLanguage.CUSTOM) {
+                    throw new UnsupportedOperationException("Not implemented yet!");
+                }
+
+                var entryRule = Utils.nvl(grammar.getEntryRule(), parser.getRuleNames()[0]);
+                yield (ParserRuleContext) parser.getClass().getMethod(entryRule).invoke(parser);
+            }
+        };
     }
 
     private static List<String> splitLines(final String preProcessedInput) {
@@ -650,6 +650,12 @@ public class Utils {
         return String.format("%02d:%02d:%02d.%03d", hours, minutes, seconds, millis);
     }
 
+    /**
+     * Copies the structure into concurrent collections without modifying the source. Containers that are already
+     * concurrent may be shared with other threads, so they are copied eagerly as a snapshot. Plain containers (parsed
+     * JSON/YAML, expanded models) are copied one level at a time: their nested containers are converted when first read
+     * through the copy, so subtrees that are never read are never copied.
+     */
     public static Object convertToConcurrent(Object obj) {
         return convertToConcurrent(obj, new IdentityHashMap<>());
     }
@@ -659,12 +665,17 @@ public class Utils {
         if (obj == null) return null;
         if (visited.containsKey(obj)) return visited.get(obj);
 
+        boolean isSnapshot = isConcurrentContainer(obj);
         switch (obj) {
             case List<?> objects -> {
-                List<Object> concurrentList = new ConcurrentLinkedList<>();
+                ConcurrentLinkedList<Object> concurrentList = new ConcurrentLinkedList<>(objects.size());
                 visited.put(obj, concurrentList);
                 for (Object item : objects) {
-                    concurrentList.add(convertToConcurrent(item, visited));
+                    if (!isSnapshot && isPlainContainer(item)) {
+                        concurrentList.addDeferred(new DeferredValue(item));
+                    } else {
+                        concurrentList.add(convertToConcurrent(item, visited));
+                    }
                 }
                 return concurrentList;
             }
@@ -677,12 +688,15 @@ public class Utils {
                 return concurrentSet;
             }
             case Map<?, ?> map -> {
-                Map<Object, Object> concurrentMap = new ConcurrentLinkedHashMap<>();
+                ConcurrentLinkedHashMap<Object, Object> concurrentMap = new ConcurrentLinkedHashMap<>();
                 visited.put(obj, concurrentMap);
                 for (Map.Entry<?, ?> entry : map.entrySet()) {
                     Object key = entry.getKey();
-                    Object value = convertToConcurrent(entry.getValue(), visited);
-                    concurrentMap.put(key, value);
+                    if (!isSnapshot && isPlainContainer(entry.getValue())) {
+                        concurrentMap.putDeferred(key, new DeferredValue(entry.getValue()));
+                    } else {
+                        concurrentMap.put(key, convertToConcurrent(entry.getValue(), visited));
+                    }
                 }
                 return concurrentMap;
             }
@@ -692,6 +706,14 @@ public class Utils {
         }
     }
 
+    private static boolean isConcurrentContainer(Object obj) {
+        return obj instanceof ConcurrentLinkedHashMap<?, ?> || obj instanceof ConcurrentLinkedList<?> || obj instanceof ConcurrentLinkedHashSet<?>;
+    }
+
+    private static boolean isPlainContainer(Object obj) {
+        return (obj instanceof Map<?, ?> || obj instanceof List<?>) && !isConcurrentContainer(obj);
+    }
+
     public static String[] splitFunctionArguments(String input) {
         int parenStart = input.indexOf('(');
         if (parenStart == -1 || !input.endsWith(")")) {
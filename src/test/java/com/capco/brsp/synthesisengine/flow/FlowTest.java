@@ -0,0 +1,239 @@
+package com.capco.brsp.synthesisengine.flow;
+
+import com.capco.brsp.synthesisengine.service.ContextService;
+import com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMap;
+import com.capco.brsp.synthesisengine.utils.ContextJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowTest {
+
+    @Test
+    void testRunsTasksOnceTheirDependenciesAreComplete(@TempDir Path metaFolder) {
+        var order = new ConcurrentLinkedQueue<String>();
+        var parent = task("parent", () -> order.add("parent")).build();
+        var child = task("child", () -> order.add("child")).dependsOn(List.of(parent)).build();
+
+        flow(metaFolder, 1, new LocalFlowStateStore(), Map.of(), child, parent).execute();
+
+        assertEquals(List.of("parent", "child"), List.copyOf(order));
+        assertEquals(EnumTaskStatus.COMPLETE, child.getStatus());
+
+        var neverRun = task("never run", () -> order.add("never run")).build();
+        var orphan = task("orphan", () -> order.add("orphan")).dependsOn(List.of(neverRun)).build();
+        var flow = flow(metaFolder, 1, new LocalFlowStateStore(), Map.of(), orphan);
+
+        assertThrows(IllegalStateException.class, flow::execute);
+        assertEquals(EnumTaskStatus.ERROR, flow.getStatus());
+    }
+
+    @Test
+    void testExclusiveTasksAreBarriers(@TempDir Path metaFolder) {
+        var order = new ConcurrentLinkedQueue<String>();
+        var running = new AtomicInteger();
+        var overlapped = new AtomicBoolean();
+
+        var barrier = task("barrier", () -> {
+            overlapped.compareAndSet(false, running.get() != 0);
+            order.add("barrier");
+        }).exclusive(true).build();
+
+        flow(metaFolder, 4, new LocalFlowStateStore(), Map.of(),
+                slowTask("a", order, running), slowTask("b", order, running), barrier, slowTask("c", order, running), slowTask("d", order, running)).execute();
+
+        assertFalse(overlapped.get());
+        assertEquals(2, List.copyOf(order).indexOf("barrier"));
+        assertEquals(5, order.size());
+    }
+
+    @Test
+    void testPublishesOnlyTheParallelTasksThatSucceeded(@TempDir Path metaFolder) {
+        var contextService = new ContextService();
+        var shared = new ConcurrentLinkedHashMap<String, Object>();
+        var flow = flow(metaFolder, 2, new LocalFlowStateStore(), shared);
+        var flowKey = flow.getFlowKey();
+
+        var succeeding = task("succeeding", contextService.isolated(flowKey, List.of("result"), () -> {
+            contextService.getProjectContext().put("result", "done");
+            contextService.getProjectContext().put("scratch", "not published");
+        })).build();
+        var failing = task("failing", contextService.isolated(flowKey, List.of("failed"), () -> {
+            contextService.getProjectContext().put("failed", "partial");
+            throw new IllegalStateException("Failed on purpose");
+        })).build();
+        flow.getTasks().addAll(List.of(succeeding, failing));
+
+        contextService.loadProjectContext(flowKey, shared);
+        try {
+            var failure = assertThrows(IllegalStateException.class, flow::execute);
+            assertEquals("Failed on purpose", failure.getMessage());
+        } finally {
+            contextService.clear();
+        }
+
+        assertEquals("done", shared.get("result"));
+        assertFalse(shared.containsKey("scratch"));
+        assertFalse(shared.containsKey("failed"));
+        assertEquals(EnumTaskStatus.ERROR, flow.getStatus());
+    }
+
+    @Test
+    void testPrependedTasksRunNext(@TempDir Path metaFolder) {
+        var order = new ConcurrentLinkedQueue<String>();
+        var flow = flow(metaFolder, 1, new LocalFlowStateStore(), Map.of());
+        var expanded = List.of(task("a1", () -> order.add("a1")).build(), task("a2", () -> order.add("a2")).build());
+        flow.getTasks().add(task("a", () -> {
+            order.add("a");
+            flow.prependTasks(expanded);
+        }).build());
+        flow.getTasks().add(task("b", () -> order.add("b")).build());
+
+        flow.execute();
+
+        assertEquals(List.of("a", "a1", "a2", "b"), List.copyOf(order));
+
+        // Queues other than a Deque are rebuilt
+        order.clear();
+        Queue<Task> queue = new ConcurrentLinkedQueue<>(List.of(task("b", () -> order.add("b")).build()));
+        var queueFlow = Flow.builder()
+                .projectUUID(UUID.randomUUID())
+                .contextKey("test")
+                .name("queueFlow")
+                .status(EnumTaskStatus.NEW)
+                .tasks(queue)
+                .totalWeight(2)
+                .projectContext(Map.of())
+                .contextJournal(new ContextJournal(metaFolder))
+                .completionLedger(new TaskCompletionLedger(metaFolder))
+                .build();
+        queueFlow.prependTasks(List.of(task("a", () -> order.add("a")).build()));
+
+        queueFlow.execute();
+
+        assertEquals(List.of("a", "b"), List.copyOf(order));
+    }
+
+    @Test
+    void testDefersTasksLeasedByAnotherNode(@TempDir Path metaFolder) {
+        var stateStore = new LocalFlowStateStore("node-1", Duration.ofMinutes(1));
+        var otherNode = stateStore.asNode("node-2");
+        var runs = new AtomicInteger();
+        var order = new ConcurrentLinkedQueue<String>();
+
+        var flow = flow(metaFolder, 1, stateStore, Map.of());
+        var tracked = trackedTask("tracked", metaFolder.resolve("Tracked.java"), () -> {
+            runs.incrementAndGet();
+            return "tracked";
+        });
+        assertTrue(otherNode.tryLease(flow.getFlowKey(), tracked.getLeaseKey(), 0));
+
+        // Runs while the tracked task waits for its lease, as the other node finishes it
+        var untracked = task("untracked", () -> {
+            order.add("untracked");
+            otherNode.complete(flow.getFlowKey(), tracked.getLeaseKey());
+        }).build();
+        flow.getTasks().addAll(List.of(tracked, untracked));
+
+        flow.execute();
+
+        assertEquals(0, runs.get());
+        assertEquals(EnumTaskStatus.COMPLETE, tracked.getStatus());
+        assertEquals(List.of("untracked"), List.copyOf(order));
+        assertEquals("node-2", stateStore.getTaskStates(flow.getFlowKey()).get(tracked.getLeaseKey()).nodeId());
+    }
+
+    @Test
+    void testSkipsTasksWhoseInputsAndReadsAreUnchanged(@TempDir Path metaFolder) {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        context.put("prompt", "Describe A");
+        var output = metaFolder.resolve("A.md");
+        var runs = new AtomicInteger();
+
+        Runnable newRun = () -> {
+            var generate = trackedTask("generate", output, () -> {
+                runs.incrementAndGet();
+                return (String) context.get("prompt");
+            });
+            flow(metaFolder, 1, new LocalFlowStateStore(), context, generate).execute();
+            assertEquals(EnumTaskStatus.COMPLETE, generate.getStatus());
+        };
+
+        newRun.run();
+        assertEquals(1, runs.get());
+
+        newRun.run();
+        assertEquals(1, runs.get());
+
+        context.put("prompt", "Describe A differently");
+        newRun.run();
+        assertEquals(2, runs.get());
+    }
+
+    private static Flow flow(Path metaFolder, int parallelism, FlowStateStore stateStore, Map<String, Object> projectContext, Task... tasks) {
+        return Flow.builder()
+                .projectUUID(UUID.randomUUID())
+                .contextKey("test")
+                .name("testFlow")
+                .status(EnumTaskStatus.NEW)
+                .startMessage("Starting the testFlow")
+                .endMessage("Finished the testFlow")
+                .tasks(new ConcurrentLinkedDeque<>(List.of(tasks)))
+                .totalWeight(Math.max(1, tasks.length))
+                .projectContext(projectContext)
+                .parallelism(parallelism)
+                .stateStore(stateStore)
+                .contextJournal(new ContextJournal(metaFolder))
+                .completionLedger(new TaskCompletionLedger(metaFolder))
+                .build();
+    }
+
+    private static Task.TaskBuilder task(String name, Runnable runnable) {
+        return Task.builder()
+                .name(name)
+                .status(EnumTaskStatus.NEW)
+                .startMessage("Running " + name)
+                .endMessage("Completed " + name)
+                .weight(1)
+                .runnable(runnable);
+    }
+
+    private static Task trackedTask(String name, Path output, Supplier<String> content) {
+        return task(name, () -> {
+            try {
+                Files.writeString(output, content.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).inputHash(name + "-input").outputPath(output.toString()).build();
+    }
+
+    private static Task slowTask(String name, Queue<String> order, AtomicInteger running) {
+        return task(name, () -> {
+            running.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            order.add(name);
+            running.decrementAndGet();
+        }).build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares {@link ConcurrentLinkedHashMap} with the previous lock-wrapped {@link LinkedHashMap} on a project-context
+ * like workload. Not part of the test suite, run it with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.capco.brsp.synthesisengine.utils.ConcurrentLinkedHashMapBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentLinkedHashMapBenchmark {
+    private static final int KEYS = 512;
+
+    @Param({"ordered", "locked"})
+    public String implementation;
+
+    private Map<String, Object> map;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        map = implementation.equals("ordered") ? new ConcurrentLinkedHashMap<>() : new LockedLinkedHashMap<>();
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+            map.put(keys[i], i);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object readMostly() {
+        var random = ThreadLocalRandom.current();
+        var key = keys[random.nextInt(KEYS)];
+        if (random.nextInt(10) == 0) {
+            return map.put(key, random.nextInt());
+        }
+
+        return map.get(key);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object writeHeavy() {
+        var random = ThreadLocalRandom.current();
+        var key = keys[random.nextInt(KEYS)];
+        if (random.nextBoolean()) {
+            return map.remove(key);
+        }
+
+        return map.put(key, random.nextInt());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void iterateWhileWriting(Blackhole blackhole) {
+        var random = ThreadLocalRandom.current();
+        if (random.nextInt(4) == 0) {
+            map.put(keys[random.nextInt(KEYS)], random.nextInt());
+            return;
+        }
+
+        // The previous implementation does not lock iteration, it may fail with a ConcurrentModificationException
+        try {
+            map.forEach((key, value) -> blackhole.consume(value));
+        } catch (RuntimeException ex) {
+            blackhole.consume(ex);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ConcurrentLinkedHashMapBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    // The ConcurrentLinkedHashMap implementation before the ordered index
+    static class LockedLinkedHashMap<K, V> extends LinkedHashMap<K, V> {
+        private final Lock lock = new ReentrantLock();
+
+        @Override
+        public V put(K key, V value) {
+            lock.lock();
+            try {
+                return super.put(key, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public V get(Object key) {
+            lock.lock();
+            try {
+                return super.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public V remove(Object key) {
+            lock.lock();
+            try {
+                return super.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentLinkedHashMapTest {
+
+    @Test
+    void testKeepsInsertionOrder() {
+        var map = new ConcurrentLinkedHashMap<String, Integer>();
+        map.put("c", 1);
+        map.put("a", 2);
+        map.put("b", 3);
+        map.put("c", 4);
+        map.remove("a");
+        map.put("a", 5);
+
+        assertEquals(List.of("c", "b", "a"), List.copyOf(map.keySet()));
+        assertEquals(List.of(4, 3, 5), List.copyOf(map.values()));
+    }
+
+    @Test
+    void testAcceptsNullKeysAndValues() {
+        var map = new ConcurrentLinkedHashMap<String, Object>();
+        map.put(null, "value");
+        map.put("key", null);
+
+        assertEquals("value", map.get(null));
+        assertTrue(map.containsKey("key"));
+        assertNull(map.get("key"));
+        assertEquals("other", map.computeIfAbsent("key", it -> "other"));
+    }
+
+    @Test
+    void testComputeIfAbsentMayUpdateTheSameMap() {
+        var map = new ConcurrentLinkedHashMap<String, Object>();
+        var value = map.computeIfAbsent("outer", key -> {
+            map.computeIfAbsent("inner", it -> "nested");
+            return "value";
+        });
+
+        assertEquals("value", value);
+        assertEquals(List.of("inner", "outer"), List.copyOf(map.keySet()));
+    }
+
+    @Test
+    void testSerializesWithItsOrder() throws Exception {
+        var map = new ConcurrentLinkedHashMap<String, Object>();
+        map.put("b", 1);
+        map.put(null, "null key");
+        map.put("a", List.of(2));
+
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+
+        Object copy;
+        try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = in.readObject();
+        }
+
+        assertInstanceOf(ConcurrentLinkedHashMap.class, copy);
+        assertEquals(map, copy);
+        assertEquals(List.copyOf(map.keySet()), List.copyOf(((ConcurrentLinkedHashMap<?, ?>) copy).keySet()));
+    }
+
+    @Test
+    void testRemovesWhileIterating() {
+        var map = new ConcurrentLinkedHashMap<String, Integer>();
+        for (int i = 0; i < 10; i++) {
+            map.put("_arg" + i, i);
+        }
+        map.put("content", 10);
+
+        for (var key : map.keySet()) {
+            map.remove("_arg9");
+            map.put(key, -1);
+        }
+        map.entrySet().removeIf(it -> it.getKey().startsWith("_arg"));
+
+        assertEquals(List.of("content"), List.copyOf(map.keySet()));
+        assertEquals(-1, map.get("content"));
+    }
+
+    @Test
+    void testConcurrentUpdatesAreConsistent() throws InterruptedException {
+        var map = new ConcurrentLinkedHashMap<Integer, Integer>();
+        int threads = 8;
+        int keys = 1000;
+        var start = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < keys; i++) {
+                        map.merge(i, 1, Integer::sum);
+                        if (i % 2 == 0) {
+                            map.keySet().forEach(map::containsKey);
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(keys, map.size());
+        assertEquals(keys, map.entrySet().size());
+        map.forEach((key, value) -> assertEquals(threads, value));
+    }
+}
@@ -0,0 +1,124 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentLinkedListTest {
+
+    @Test
+    void testIndexedAccessAndBulkOperations() {
+        var list = new ConcurrentLinkedList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+        list.add(0, -1);
+        list.removeIf(it -> it % 2 == 0);
+
+        assertEquals(List.of(-1, 1, 3, 5, 7, 9), list);
+        assertEquals(7, list.get(4));
+        assertEquals(9, list.getLast());
+        assertEquals(new ArrayList<>(list).hashCode(), list.hashCode());
+    }
+
+    @Test
+    void testModifiesWhileIterating() {
+        var list = new ConcurrentLinkedList<>(List.of("a", "b", "c", "d"));
+        var visited = new ArrayList<String>();
+        for (var item : list) {
+            visited.add(item);
+            list.remove("d");
+            list.add("e");
+            if (visited.size() == 4) {
+                break;
+            }
+        }
+
+        var iterator = list.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals("e")) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(List.of("a", "b", "c", "e"), visited);
+        assertEquals(List.of("a", "b", "c"), list);
+    }
+
+    @Test
+    void testCallbacksCanReadTheList() {
+        var list = new ConcurrentLinkedList<>(List.of(1, 2, 3));
+        list.removeIf(it -> list.contains(it + 1));
+        list.replaceAll(it -> it * list.size());
+
+        assertEquals(List.of(3), list);
+    }
+
+    @Test
+    void testSetKeepsInsertionOrder() {
+        var set = new ConcurrentLinkedHashSet<String>();
+        set.add("b");
+        set.add("a");
+        set.add("b");
+        set.removeIf(it -> it.equals("c"));
+
+        assertEquals(List.of("b", "a"), List.copyOf(set));
+        assertTrue(set.contains("a"));
+    }
+
+    @Test
+    void testKeepsTheDequeMethods() {
+        var list = new ConcurrentLinkedList<String>();
+        list.push("b");
+        list.push("a");
+        list.offer("c");
+
+        assertEquals(List.of("a", "b", "c"), list);
+        assertEquals("a", list.peek());
+        assertEquals("c", list.peekLast());
+
+        var descending = new ArrayList<String>();
+        list.descendingIterator().forEachRemaining(descending::add);
+        assertEquals(List.of("c", "b", "a"), descending);
+
+        assertEquals("a", list.pop());
+        assertEquals("c", list.pollLast());
+        assertEquals("b", list.poll());
+        assertNull(list.poll());
+        assertNull(list.peek());
+    }
+
+    @Test
+    void testSerializesWithItsOrder() throws Exception {
+        var list = new ConcurrentLinkedList<>(List.of("b", "a"));
+        var set = new ConcurrentLinkedHashSet<>(new LinkedHashSet<>(List.of("b", "a")));
+
+        var listCopy = roundTrip(list);
+        assertInstanceOf(ConcurrentLinkedList.class, listCopy);
+        assertEquals(list, listCopy);
+
+        var setCopy = roundTrip(set);
+        assertInstanceOf(ConcurrentLinkedHashSet.class, setCopy);
+        assertEquals(List.of("b", "a"), List.copyOf((Set<?>) setCopy));
+    }
+
+    private static Object roundTrip(Object value) throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+
+        try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.TransformDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextJournalTest {
+
+    @Test
+    void testJournalsOnlyChangedEntries(@TempDir Path metaFolder) throws Exception {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        var files = new ConcurrentLinkedHashMap<String, Object>();
+        context.put("files_metadata", files);
+        context.put("history", new ConcurrentLinkedList<>(List.of("a")));
+        context.put("name", "demo");
+
+        var journal = new ContextJournal(metaFolder);
+        journal.checkpoint(context);
+        assertFalse(Files.exists(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME)));
+
+        journal.checkpoint(context);
+        assertFalse(Files.exists(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME)));
+
+        files.put("src/App.java", Map.of("status", "done"));
+        context.remove("name");
+        journal.checkpoint(context);
+        var journalSize = Files.size(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME));
+
+        var loaded = ContextJournal.load(metaFolder);
+        assertEquals(List.of("files_metadata", "history"), List.copyOf(loaded.keySet()));
+        var loadedFiles = (Map<?, ?>) loaded.get("files_metadata");
+        assertEquals("done", ((Map<?, ?>) loadedFiles.get("src/App.java")).get("status"));
+
+        journal.checkpoint(context);
+        assertEquals(journalSize, Files.size(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME)));
+    }
+
+    @Test
+    void testIgnoresTruncatedJournalRecord(@TempDir Path metaFolder) throws Exception {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        context.put("count", 1);
+
+        var journal = new ContextJournal(metaFolder);
+        journal.checkpoint(context);
+        context.put("count", 2);
+        journal.checkpoint(context);
+        Files.write(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME), new byte[]{0, 0, 0, 42, 1}, StandardOpenOption.APPEND);
+
+        assertEquals(2, ContextJournal.load(metaFolder).get("count"));
+    }
+
+    @Test
+    void testJournalsOnlyTheChangedNestedEntry(@TempDir Path metaFolder) throws Exception {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        var files = new ConcurrentLinkedHashMap<String, Object>();
+        context.put("files_metadata", files);
+        files.put("src/Big.java", new ConcurrentLinkedHashMap<>(Map.of("content", "x".repeat(100_000))));
+        var small = new ConcurrentLinkedHashMap<String, Object>();
+        files.put("src/Small.java", small);
+
+        var journal = new ContextJournal(metaFolder);
+        journal.checkpoint(context);
+        small.put("status", "done");
+        journal.checkpoint(context);
+
+        assertTrue(Files.size(metaFolder.resolve(ContextJournal.JOURNAL_FILE_NAME)) < 1_000);
+        var loadedFiles = (Map<?, ?>) ContextJournal.load(metaFolder).get("files_metadata");
+        assertEquals("done", ((Map<?, ?>) loadedFiles.get("src/Small.java")).get("status"));
+        assertEquals(100_000, ((String) ((Map<?, ?>) loadedFiles.get("src/Big.java")).get("content")).length());
+    }
+
+    @Test
+    void testDetectsDtoUpdatedInPlace(@TempDir Path metaFolder) {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        var transform = TransformDto.builder().name("prompt").content("before").build();
+        context.put("history", new ConcurrentLinkedList<>(List.of(transform)));
+
+        var journal = new ContextJournal(metaFolder);
+        journal.checkpoint(context);
+        transform.setContent("after");
+        transform.setMillisSpent(42);
+        journal.checkpoint(context);
+
+        var history = (List<?>) ContextJournal.load(metaFolder).get("history");
+        assertEquals("after", ((Map<?, ?>) history.getFirst()).get("content"));
+        assertEquals(42, ((Map<?, ?>) history.getFirst()).get("millisSpent"));
+    }
+}
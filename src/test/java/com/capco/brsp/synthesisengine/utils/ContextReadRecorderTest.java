@@ -0,0 +1,111 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.TransformDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextReadRecorderTest {
+
+    @Test
+    void testRecordsOnlyTheValuesRead() {
+        var context = (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(Map.of(
+                "recipe", Map.of("prompts", Map.of("a", "Describe A", "b", "Describe B")),
+                "agents", List.of("reviewer")
+        ));
+
+        var recorder = new ContextReadRecorder(context);
+        recorder.run(() -> {
+            context.put("fileName", "A.java");
+            context.get("fileName");
+            var prompts = (Map<?, ?>) ((Map<?, ?>) context.get("recipe")).get("prompts");
+            prompts.get("a");
+            ((List<?>) context.get("agents")).forEach(it -> {
+            });
+        });
+
+        var dependencies = recorder.getDependencies();
+        assertEquals(List.of("[\"recipe\",\"prompts\",\"a\"]", "[\"agents\"]"), List.copyOf(dependencies.keySet()));
+
+        var prompts = (Map<String, Object>) Utils.anyCollectionGet(context, "recipe.prompts");
+        prompts.put("b", "Describe B differently");
+        dependencies.forEach((path, hash) -> assertEquals(hash, ContextReadRecorder.hashAt(context, path)));
+
+        prompts.put("a", "Describe A differently");
+        var path = "[\"recipe\",\"prompts\",\"a\"]";
+        assertNotEquals(dependencies.get(path), ContextReadRecorder.hashAt(context, path));
+    }
+
+    @Test
+    void testWritesToAnOverlayAreNotDependencies() {
+        var context = (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(Map.of(
+                "fileName", "Shared.java",
+                "recipe", Map.of("name", "demo")
+        ));
+
+        var recorder = new ContextReadRecorder(context);
+        recorder.run(() -> {
+            var overlay = new OverlayContextMap<>(context);
+            overlay.put("fileName", "A.java");
+            overlay.get("fileName");
+            ((Map<?, ?>) overlay.get("recipe")).get("name");
+        });
+
+        assertEquals(List.of("[\"recipe\",\"name\"]"), List.copyOf(recorder.getDependencies().keySet()));
+    }
+
+    @Test
+    void testHashesContainersByContent() {
+        var context = (ConcurrentLinkedHashMap<String, Object>) Utils.convertToConcurrent(Map.of(
+                "agents", List.of("reviewer", 1)
+        ));
+        var path = "[\"agents\"]";
+        var hash = ContextReadRecorder.hashAt(context, path);
+
+        assertEquals(hash, ContextReadRecorder.hashAt(context, path));
+        assertEquals(hash, ContextReadRecorder.hashAt(Map.of("agents", List.of("reviewer", 1)), path));
+        assertNotEquals(hash, ContextReadRecorder.hashAt(Map.of("agents", List.of("reviewer", "1")), path));
+
+        ((List<Object>) context.get("agents")).add("writer");
+        assertNotEquals(hash, ContextReadRecorder.hashAt(context, path));
+    }
+
+    @Test
+    void testKeepsTheTypeOfTheKeys() {
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        var byId = new ConcurrentLinkedHashMap<Object, Object>();
+        byId.put(7L, "seven");
+        byId.put("7", "seven as text");
+        context.put("byId", byId);
+
+        var recorder = new ContextReadRecorder(context);
+        recorder.run(() -> ((Map<?, ?>) context.get("byId")).get(7L));
+
+        var path = List.copyOf(recorder.getDependencies().keySet()).getFirst();
+        assertEquals(recorder.getDependencies().get(path), ContextReadRecorder.hashAt(context, path));
+
+        byId.put("7", "changed text");
+        assertEquals(recorder.getDependencies().get(path), ContextReadRecorder.hashAt(context, path));
+
+        byId.put(7L, "changed");
+        assertNotEquals(recorder.getDependencies().get(path), ContextReadRecorder.hashAt(context, path));
+    }
+
+    @Test
+    void testHashesDtosByTheirFields() {
+        var transform = TransformDto.builder().uuid(UUID.fromString("00000000-0000-0000-0000-000000000001")).command("prompt").build();
+        var context = new ConcurrentLinkedHashMap<String, Object>();
+        context.put("transform", transform);
+        var path = "[\"transform\"]";
+        var hash = ContextReadRecorder.hashAt(context, path);
+
+        assertEquals(hash, ContextReadRecorder.hashAt(context, path));
+
+        transform.getCaches().add("prompt");
+        assertNotEquals(hash, ContextReadRecorder.hashAt(context, path));
+    }
+}
@@ -0,0 +1,46 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LruCacheTest {
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        var cache = new LruCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertEquals(1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void testCountsHitsAndMisses() {
+        var cache = new LruCache<String, String>(10);
+        cache.computeIfAbsent("key", it -> "value");
+        cache.computeIfAbsent("key", it -> "other");
+
+        assertEquals("value", cache.get("key"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testShrinkingMaxSizeEvicts() {
+        var cache = new LruCache<Integer, Integer>(5);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, i);
+        }
+        cache.setMaxSize(2);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(4));
+        assertNull(cache.get(0));
+    }
+}
@@ -0,0 +1,61 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OverlayContextMapTest {
+
+    @Test
+    void testMergesTheLocalChangesWithTheParentKeys() {
+        var shared = new ConcurrentLinkedHashMap<String, Object>();
+        shared.put("a", 1);
+        shared.put("b", 2);
+        shared.put("c", 3);
+
+        var overlay = new OverlayContextMap<>(shared);
+        overlay.put("b", 20);
+        overlay.remove("c");
+        overlay.put("d", 4);
+
+        assertEquals(3, overlay.size());
+        assertEquals(Set.of("a", "b", "d"), overlay.keySet());
+        assertEquals(List.of(1, 20, 4), List.copyOf(overlay.values()));
+
+        overlay.replaceAll((key, value) -> (Integer) value * 10);
+        assertEquals(Map.of("a", 10, "b", 200, "d", 40), overlay.createSnapshot());
+        assertEquals(Map.of("a", 1, "b", 2, "c", 3), shared);
+
+        overlay.entrySet().removeIf(entry -> entry.getKey().equals("a"));
+        assertFalse(overlay.containsKey("a"));
+        assertEquals(2, overlay.size());
+        assertTrue(shared.containsKey("a"));
+    }
+
+    @Test
+    void testPublishesNestedUpdatesEntryByEntry() {
+        var filesMetadata = new ConcurrentLinkedHashMap<String, Object>();
+        filesMetadata.put("A.java", "a");
+        var shared = new ConcurrentLinkedHashMap<String, Object>();
+        shared.put("files_metadata", filesMetadata);
+
+        var first = new OverlayContextMap<>(shared);
+        var second = new OverlayContextMap<>(shared);
+        first.<String, Object>getNestedForUpdate("files_metadata").put("B.java", "b");
+        second.<String, Object>getNestedForUpdate("files_metadata").put("C.java", "c");
+
+        assertFalse(filesMetadata.containsKey("B.java"));
+        assertEquals("a", ((Map<?, ?>) first.get("files_metadata")).get("A.java"));
+        assertEquals("b", ((Map<?, ?>) first.get("files_metadata")).get("B.java"));
+
+        first.publish(List.of("files_metadata"));
+        second.publish(List.of("files_metadata"));
+
+        assertSame(filesMetadata, shared.get("files_metadata"));
+        assertEquals(Set.of("A.java", "B.java", "C.java"), filesMetadata.keySet());
+    }
+}
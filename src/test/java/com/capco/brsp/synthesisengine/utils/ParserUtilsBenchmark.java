@@ -0,0 +1,96 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.grammars.Grammar;
+import com.capco.brsp.synthesisengine.enums.EnumParserLanguage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two-stage SLL/LL prediction of {@link ParserUtils#parse} with plain LL on the bundled grammars, Java
+ * over the sources of this project and COBOL over a generated program. Not part of the test suite, run it from the
+ * project folder with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.capco.brsp.synthesisengine.utils.ParserUtilsBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParserUtilsBenchmark {
+    private static final Path JAVA_SOURCES = Path.of("src", "main", "java", "com", "capco", "brsp", "synthesisengine", "utils");
+    private static final int COBOL_STATEMENTS = 2000;
+
+    @Param({"JAVA", "COBOL"})
+    public String language;
+
+    @Param({"twoStage", "ll"})
+    public String prediction;
+
+    private Grammar grammar;
+    private List<String> contents;
+
+    @Setup
+    public void setup() throws IOException {
+        grammar = Grammar.builder().enumParserLanguage(EnumParserLanguage.valueOf(language)).build();
+        contents = language.equals("JAVA") ? javaSources() : List.of(cobolProgram());
+    }
+
+    /**
+     * Reports the DFA states cached once the contents are parsed next to the timings, as the
+     * {@code parse:dfaStates} secondary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DfaCounters {
+        public int dfaStates;
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole, DfaCounters counters) throws Exception {
+        var twoStagePrediction = prediction.equals("twoStage");
+        for (String content : contents) {
+            blackhole.consume(ParserUtils.parse(grammar, content, twoStagePrediction).getParserRuleContext());
+        }
+        counters.dfaStates = ParserUtils.getDfaCacheSize(grammar);
+    }
+
+    private static List<String> javaSources() throws IOException {
+        var sources = new ArrayList<String>();
+        try (var files = Files.list(JAVA_SOURCES)) {
+            for (Path file : files.filter(it -> it.toString().endsWith(".java")).sorted().toList()) {
+                sources.add(Files.readString(file));
+            }
+        }
+
+        return sources;
+    }
+
+    private static String cobolProgram() {
+        var program = new StringBuilder()
+                .append("       IDENTIFICATION DIVISION.\n")
+                .append("       PROGRAM-ID. BENCH.\n")
+                .append("       PROCEDURE DIVISION.\n");
+        for (int i = 0; i < COBOL_STATEMENTS; i++) {
+            program.append("           IF ").append(i).append(" > 0\n")
+                    .append("               DISPLAY 'LINE ").append(i).append("'\n")
+                    .append("           END-IF.\n");
+        }
+
+        return program.append("           STOP RUN.\n").toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParserUtilsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
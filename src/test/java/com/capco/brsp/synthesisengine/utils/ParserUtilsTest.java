@@ -0,0 +1,89 @@
+package com.capco.brsp.synthesisengine.utils;
+
+import com.capco.brsp.synthesisengine.dto.grammars.Grammar;
+import com.capco.brsp.synthesisengine.enums.EnumParserLanguage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserUtilsTest {
+
+    @Test
+    void testParseAllReportsEachResult() throws Exception {
+        var grammar = Grammar.builder().enumParserLanguage(EnumParserLanguage.JAVA).build();
+        var contents = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            contents.put("src/A" + i + ".java", "class A" + i + " { int value = " + i + "; }");
+        }
+        contents.put("src/Broken.java", "class Broken {");
+
+        ParserUtils.ParseResult broken;
+        try (var results = ParserUtils.parseAll(grammar, contents)) {
+            var byPath = results.collect(Collectors.toMap(ParserUtils.ParseResult::path, it -> it));
+            assertEquals(contents.keySet(), byPath.keySet());
+            broken = byPath.remove("src/Broken.java");
+
+            for (var result : byPath.values()) {
+                assertTrue(result.isSuccess(), result.path());
+                assertEquals(ParserUtils.parse(grammar, contents.get(result.path())).getJsonString(), result.parsed().getJsonString());
+            }
+        }
+
+        assertFalse(broken.isSuccess());
+    }
+
+    @Test
+    void testTwoStagePredictionMatchesPlainLL() throws Exception {
+        var grammar = Grammar.builder().enumParserLanguage(EnumParserLanguage.JAVA).build();
+        var contents = List.of(
+                "class A { int value = 1; String name() { return \"a\"; } }",
+                "class B { void f() { g(a < b, c > d); List<Map<String, int[]>> x = (List<Map<String, int[]>>) y; } }",
+                "class C { Runnable r = () -> { if (a) b(); else c(); }; int[] d = new int[] { 1, 2 }; }"
+        );
+        for (var content : contents) {
+            assertEquals(ParserUtils.parse(grammar, content, false).getJsonString(), ParserUtils.parse(grammar, content, true).getJsonString(), content);
+        }
+
+        // The syntax error is the one plain LL reports, not the first SLL bailed out on
+        var broken = "class Broken { int a = ; void f() { } }";
+        var llError = assertThrows(Exception.class, () -> ParserUtils.parse(grammar, broken, false));
+        var twoStageError = assertThrows(Exception.class, () -> ParserUtils.parse(grammar, broken, true));
+        assertEquals(llError.getClass(), twoStageError.getClass());
+        assertEquals(llError.getMessage(), twoStageError.getMessage());
+    }
+
+    @Test
+    void testJsonObjectMatchesJsonTree() throws Exception {
+        var grammar = Grammar.builder().enumParserLanguage(EnumParserLanguage.JAVA).build();
+        var parsed = ParserUtils.parse(grammar, "class A { int value = 1; String name() { return \"a\"; } }");
+
+        var roundTrip = JsonUtils.readAsObject(JsonUtils.writeAsJsonString(parsed.getJsonTree(), true), null);
+        assertEquals(roundTrip, parsed.getJsonObject());
+        assertEquals(JsonUtils.writeAsJsonString(parsed.getJsonTree(), true), parsed.getJsonString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testExportJsonStreamsTheTree(@TempDir Path tempDir) throws Exception {
+        var grammar = Grammar.builder().enumParserLanguage(EnumParserLanguage.JAVA).build();
+        var parsed = ParserUtils.parse(grammar, "class A { int a = 1; int b() { return 2; } }");
+
+        var whole = tempDir.resolve("whole.json");
+        ParserUtils.exportJson(parsed, whole, -1);
+        assertEquals(parsed.getJsonObject(), JsonUtils.readAsObject(Files.readString(whole), null));
+
+        var members = tempDir.resolve("members.json");
+        ParserUtils.exportJson(parsed, members, 0, "classBodyDeclaration");
+        var exported = (List<Map<String, Object>>) JsonUtils.readAsObject(Files.readString(members), null);
+        assertEquals(List.of("int a = 1;", "int b() { return 2; }"), exported.stream().map(it -> it.get("text")).toList());
+        assertTrue(exported.stream().noneMatch(it -> it.containsKey("children")));
+    }
+}
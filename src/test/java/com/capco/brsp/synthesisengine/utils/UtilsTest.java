@@ -3,6 +3,13 @@ package com.capco.brsp.synthesisengine.utils;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 @Slf4j
 class UtilsTest {
     @Test
@@ -29,4 +36,23 @@ class UtilsTest {
 //        assertEquals("ru", Utils.detectLanguage(russian));
 //        assertEquals("ar", Utils.detectLanguage(arabic));
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testConvertToConcurrentCopiesNestedContainersOnRead() {
+        Map<String, Object> item = new LinkedHashMap<>(Map.of("name", "a"));
+        Map<String, Object> source = new LinkedHashMap<>();
+        source.put("items", new ArrayList<>(List.of(item)));
+
+        var converted = (Map<String, Object>) Utils.convertToConcurrent(source);
+        var items = (List<Object>) converted.get("items");
+        var convertedItem = (Map<String, Object>) items.getFirst();
+        convertedItem.put("name", "b");
+
+        assertInstanceOf(ConcurrentLinkedList.class, items);
+        assertInstanceOf(ConcurrentLinkedHashMap.class, convertedItem);
+        assertSame(convertedItem, items.getFirst());
+        assertEquals("a", item.get("name"));
+        assertEquals(Map.of("items", List.of(Map.of("name", "b"))), converted);
+    }
 }